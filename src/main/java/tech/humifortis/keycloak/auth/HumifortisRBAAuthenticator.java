@@ -13,28 +13,62 @@ import org.keycloak.models.UserModel;
 import tech.humifortis.keycloak.client.SaasClient;
 import tech.humifortis.keycloak.client.SaasConfig;
 import tech.humifortis.keycloak.model.RiskDecision;
+import tech.humifortis.keycloak.routing.RealmRoute;
+import tech.humifortis.keycloak.routing.RealmRouter;
+import tech.humifortis.keycloak.tracing.LoginTrace;
+import tech.humifortis.keycloak.tracing.Span;
+import tech.humifortis.keycloak.tracing.Tracer;
+
+import java.util.function.Supplier;
 
 public class HumifortisRBAAuthenticator implements Authenticator {
     private static final Logger logger = Logger.getLogger(HumifortisRBAAuthenticator.class);
     
-    private SaasClient saasClient;
-    private boolean fallbackAllow;
+    private final Supplier<RealmRouter> routerSource;
+    private volatile Services services;
 
-    @Override
-    public void authenticate(AuthenticationFlowContext context) {
-        // Initialize client if not already done
-        if (saasClient == null) {
-            try {
-                SaasConfig config = new SaasConfig();
-                saasClient = new SaasClient(config);
-                fallbackAllow = config.isFallbackAllow();
+    public HumifortisRBAAuthenticator() {
+        this(RealmRouter::getShared);
+    }
+
+    HumifortisRBAAuthenticator(Supplier<RealmRouter> routerSource) {
+        this.routerSource = routerSource;
+    }
+
+    /**
+     * Builds the shared router and tracer. Called from the factory's postInit;
+     * logins call it again only while configuration is still failing, and
+     * {@link RealmRouter#getShared()} rate-limits those retries.
+     */
+    Services initialize() {
+        Services current = services;
+        if (current != null) {
+            return current;
+        }
+        RealmRouter router = routerSource.get();
+        synchronized (this) {
+            if (services == null) {
+                SaasConfig config = router.getBaseConfig();
+                services = new Services(router, 
+                        new Tracer(config.getTraceSampleRate(), Tracer.createExporter(config.getTraceExporter())));
                 logger.info("Humifortis RBA Authenticator initialized");
-            } catch (Exception e) {
-                logger.error("Failed to initialize SaaS client", e);
-                handleFallback(context, "Configuration error");
-                return;
             }
+            return services;
         }
+    }
+
+    @Override
+    public void authenticate(AuthenticationFlowContext context) {
+        Services current;
+        try {
+            current = initialize();
+        } catch (Exception e) {
+            logger.errorf("Failed to initialize SaaS client: %s", e.getMessage());
+            handleFallback(context, false, "Configuration error");
+            return;
+        }
+        RealmRouter router = current.router;
+        Tracer tracer = current.tracer;
 
         UserModel user = context.getUser();
         if (user == null) {
@@ -43,21 +77,55 @@ public class HumifortisRBAAuthenticator implements Authenticator {
             return;
         }
 
-        String entityId = generateEntityId(context, user);
+        RealmRoute route;
+        try {
+            route = router.route(context.getRealm().getId(), context.getAuthenticatorConfig());
+        } catch (Exception e) {
+            logger.errorf("Failed to resolve Humifortis route for realm %s: %s", 
+                    context.getRealm().getName(), e.getMessage());
+            handleFallback(context, router.getDefaultRoute().isFallbackAllow(), "Configuration error");
+            return;
+        }
+        LoginTrace trace = tracer.startTrace("rba.authenticate");
+        try {
+            evaluate(context, user, route, trace);
+        } finally {
+            trace.end();
+        }
+    }
+
+    private void evaluate(AuthenticationFlowContext context, UserModel user, RealmRoute route, LoginTrace trace) {
+        String entityId;
+        Span entityIdSpan = trace.span("entity_id");
+        try {
+            entityId = generateEntityId(context, user);
+        } finally {
+            entityIdSpan.end();
+        }
         
         // Ask SaaS: What should I do?
         RiskDecision decision;
         try {
-            decision = saasClient.getRiskDecision(entityId);
+            decision = route.getClient().getRiskDecision(entityId, trace);
             logger.debugf("RBA decision received for %s: %s (risk: %s)", 
                     entityId, decision.getAction(), decision.getRiskScore());
         } catch (Exception e) {
             logger.errorf("Failed to get decision from SaaS for %s: %s", entityId, e.getMessage());
-            handleFallback(context, "Service unavailable");
+            handleFallback(context, route.isFallbackAllow(), "Service unavailable");
             return;
         }
 
         // Enforce decision (no local logic!)
+        Span enforceSpan = trace.span("decision.enforce");
+        try {
+            enforce(context, route.getClient(), entityId, decision);
+        } finally {
+            enforceSpan.end();
+        }
+    }
+
+    private void enforce(AuthenticationFlowContext context, SaasClient saasClient, String entityId, 
+                         RiskDecision decision) {
         switch (decision.getAction()) {
             case ALLOW:
                 logger.debugf("RBA: Allow login for %s", entityId);
@@ -96,7 +164,7 @@ public class HumifortisRBAAuthenticator implements Authenticator {
         return String.format("user:keycloak:%s:%s", realm, identifier);
     }
 
-    private void handleFallback(AuthenticationFlowContext context, String reason) {
+    private void handleFallback(AuthenticationFlowContext context, boolean fallbackAllow, String reason) {
         if (fallbackAllow) {
             logger.warnf("RBA fallback: allowing access due to %s", reason);
             context.success();
@@ -155,4 +223,17 @@ public class HumifortisRBAAuthenticator implements Authenticator {
     public void close() {
         // Nothing to close
     }
+
+    /**
+     * State shared by all logins, published as one immutable object.
+     */
+    static final class Services {
+        private final RealmRouter router;
+        private final Tracer tracer;
+
+        Services(RealmRouter router, Tracer tracer) {
+            this.router = router;
+            this.tracer = tracer;
+        }
+    }
 }
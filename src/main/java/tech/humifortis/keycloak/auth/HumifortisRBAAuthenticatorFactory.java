@@ -1,5 +1,6 @@
 package tech.humifortis.keycloak.auth;
 
+import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
@@ -7,12 +8,14 @@ import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
+import tech.humifortis.keycloak.routing.RealmRouter;
 
-import java.util.Collections;
 import java.util.List;
 
 public class HumifortisRBAAuthenticatorFactory implements AuthenticatorFactory {
     
+    private static final Logger logger = Logger.getLogger(HumifortisRBAAuthenticatorFactory.class);
+
     public static final String PROVIDER_ID = "humifortis-rba";
     private static final HumifortisRBAAuthenticator SINGLETON = new HumifortisRBAAuthenticator();
 
@@ -28,7 +31,7 @@ public class HumifortisRBAAuthenticatorFactory implements AuthenticatorFactory {
 
     @Override
     public boolean isConfigurable() {
-        return false;
+        return true;
     }
 
     @Override
@@ -48,12 +51,13 @@ public class HumifortisRBAAuthenticatorFactory implements AuthenticatorFactory {
     @Override
     public String getHelpText() {
         return "Queries Humifortis SaaS for risk-based authentication decisions. " +
-               "Configured via environment variables: HUMIFORTIS_API_URL and HUMIFORTIS_API_KEY.";
+               "Configured via environment variables: HUMIFORTIS_API_URL and HUMIFORTIS_API_KEY; " +
+               "latency budget, fallback mode, forwarded events and tenant key can be overridden per realm.";
     }
 
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
-        return Collections.emptyList();
+        return RealmRouter.configProperties();
     }
 
     @Override
@@ -68,12 +72,17 @@ public class HumifortisRBAAuthenticatorFactory implements AuthenticatorFactory {
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        // No post-initialization needed
+        try {
+            SINGLETON.initialize();
+        } catch (Exception e) {
+            logger.warnf("Humifortis RBA not configured at startup, will retry on login: %s", e.getMessage());
+        }
     }
 
     @Override
     public void close() {
-        // Nothing to close
+        // Both factories share the router; the second call finds nothing left to close
+        RealmRouter.closeShared();
     }
 
     @Override
@@ -0,0 +1,207 @@
+package tech.humifortis.keycloak.client;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * AIMD concurrency limit for outbound event delivery.
+ *
+ * The limit grows by roughly one per round of successful requests while it is
+ * actually being used, and is cut by {@link #BACKOFF_RATIO} whenever a request
+ * fails, is throttled by the SaaS or takes longer than the slow-call threshold.
+ * Work beyond the limit waits in a bounded FIFO queue; once that is full new
+ * work is shed and its future fails with {@link RejectedExecutionException}.
+ *
+ * Work runs on the limiter's own daemon threads, at most one per slot, so
+ * blocking HTTP sends never occupy the common ForkJoinPool.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger logger = Logger.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double RTT_SMOOTHING = 0.2;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long slowCallNanos;
+    private final ThreadPoolExecutor executor;
+
+    private final ArrayDeque<Task> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double smoothedRttMs;
+    private long completedCount;
+    private long shedCount;
+    private boolean closed;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, long slowCallMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.slowCallNanos = slowCallMs * 1_000_000L;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        // inFlight never exceeds maxLimit, so one thread per slot is enough; idle threads time out
+        this.executor = new ThreadPoolExecutor(this.maxLimit, this.maxLimit, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "humifortis-events-" + THREAD_COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code work} asynchronously once a slot is free. The work returns
+     * {@code false} (or throws) to signal overload, {@code true} otherwise.
+     */
+    public CompletableFuture<Void> submit(BooleanSupplier work) {
+        Task task = new Task(work);
+        synchronized (this) {
+            if (closed) {
+                task.result.completeExceptionally(new RejectedExecutionException("Event delivery limiter is closed"));
+                return task.result;
+            }
+            if (inFlight < (int) limit) {
+                inFlight++;
+                task.admittedNanos = System.nanoTime();
+            } else if (queue.size() < maxQueued) {
+                queue.addLast(task);
+                return task.result;
+            } else {
+                shedCount++;
+                task.result.completeExceptionally(new RejectedExecutionException(
+                        "Event delivery limit reached (limit " + (int) limit + ", queued " + queue.size() + ")"));
+                return task.result;
+            }
+        }
+        start(task);
+        return task.result;
+    }
+
+    private void start(Task task) {
+        try {
+            executor.execute(() -> {
+                boolean ok = false;
+                try {
+                    ok = task.work.getAsBoolean();
+                    task.result.complete(null);
+                } catch (Throwable t) {
+                    task.result.completeExceptionally(t);
+                } finally {
+                    // Measured from admission so time spent waiting for a thread counts as latency
+                    onComplete(System.nanoTime() - task.admittedNanos, ok);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                inFlight--;
+            }
+            task.result.completeExceptionally(e);
+        }
+    }
+
+    private void onComplete(long rttNanos, boolean ok) {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            completedCount++;
+            double rttMs = rttNanos / 1_000_000.0;
+            smoothedRttMs = smoothedRttMs == 0 ? rttMs : smoothedRttMs + RTT_SMOOTHING * (rttMs - smoothedRttMs);
+
+            double previous = limit;
+            if (!ok || rttNanos > slowCallNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if ((int) limit != (int) previous) {
+                logger.debugf("Event delivery limit changed %d -> %d (rtt %.1f ms)",
+                        (Object) (int) previous, (Object) (int) limit, (Object) smoothedRttMs);
+            }
+
+            inFlight--;
+            long now = System.nanoTime();
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                inFlight++;
+                Task next = queue.pollFirst();
+                next.admittedNanos = now;
+                ready.add(next);
+            }
+            if (closed && inFlight == 0) {
+                executor.shutdown();
+            }
+        }
+        ready.forEach(this::start);
+    }
+
+    /**
+     * Stops accepting work. Queued and running work still completes, after
+     * which the delivery threads exit.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (inFlight == 0) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * After {@link #close()}, waits until queued and running work has finished.
+     *
+     * @return false if work was still running when the timeout elapsed
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized double getSmoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    public synchronized long getCompletedCount() {
+        return completedCount;
+    }
+
+    public synchronized long getShedCount() {
+        return shedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("limit %d, in flight %d, queued %d, rtt %.1f ms, completed %d, shed %d",
+                (int) limit, inFlight, queue.size(), smoothedRttMs, completedCount, shedCount);
+    }
+
+    private static final class Task {
+        private final BooleanSupplier work;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private long admittedNanos;
+
+        Task(BooleanSupplier work) {
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package tech.humifortis.keycloak.client;
+
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding for batches of {@link HumifortisEvent}.
+ *
+ * Layout (version 1), all integers are unsigned LEB128 varints unless noted:
+ * <pre>
+ *   magic "HFEB" | version byte
+ *   string table: count, then (length, UTF-8 bytes) per entry
+ *   event count
+ *   per event:
+ *     presence byte (bit 0 entity_id, 1 entity_type, 2 event_type, 3 source, 4 timestamp)
+ *     string index for each present string field
+ *     timestamp: zig-zag seconds delta from previous event, then nanos
+ *     metadata count, then (key index, type tag, value) per entry
+ * </pre>
+ * Every string (field values, metadata keys and string metadata values) goes
+ * through the table, so repeated event types, realms and keys cost one varint.
+ * Timestamps that are not ISO-8601 instants are stored as strings instead.
+ */
+public class BinaryEventCodec {
+    public static final String CONTENT_TYPE = "application/vnd.humifortis.events+binary;v=1";
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'H', 'F', 'E', 'B'};
+
+    private static final int HAS_ENTITY_ID = 1;
+    private static final int HAS_ENTITY_TYPE = 1 << 1;
+    private static final int HAS_EVENT_TYPE = 1 << 2;
+    private static final int HAS_SOURCE = 1 << 3;
+    private static final int HAS_TIMESTAMP = 1 << 4;
+    private static final int TIMESTAMP_AS_STRING = 1 << 5;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_BOOLEAN = 5;
+
+    public byte[] encode(List<HumifortisEvent> events) {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        Instant[] instants = new Instant[events.size()];
+        for (int i = 0; i < instants.length; i++) {
+            HumifortisEvent event = events.get(i);
+            intern(table, event.getEntityId());
+            intern(table, event.getEntityType());
+            intern(table, event.getEventType());
+            intern(table, event.getSource());
+            if (event.getTimestamp() != null) {
+                instants[i] = parseInstant(event.getTimestamp());
+                if (instants[i] == null) {
+                    intern(table, event.getTimestamp());
+                }
+            }
+            if (event.getMetadata() != null) {
+                event.getMetadata().forEach((key, value) -> {
+                    intern(table, key);
+                    if (value != null && tagOf(value) == TAG_STRING) {
+                        intern(table, value.toString());
+                    }
+                });
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + events.size() * 48);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+
+        writeVarint(out, table.size());
+        for (String value : table.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        writeVarint(out, events.size());
+        long previousSeconds = 0;
+        for (int i = 0; i < instants.length; i++) {
+            HumifortisEvent event = events.get(i);
+            Instant instant = instants[i];
+            int presence = 0;
+            if (event.getEntityId() != null) presence |= HAS_ENTITY_ID;
+            if (event.getEntityType() != null) presence |= HAS_ENTITY_TYPE;
+            if (event.getEventType() != null) presence |= HAS_EVENT_TYPE;
+            if (event.getSource() != null) presence |= HAS_SOURCE;
+            if (event.getTimestamp() != null) {
+                presence |= HAS_TIMESTAMP;
+                if (instant == null) presence |= TIMESTAMP_AS_STRING;
+            }
+            out.write(presence);
+
+            if (event.getEntityId() != null) writeVarint(out, table.get(event.getEntityId()));
+            if (event.getEntityType() != null) writeVarint(out, table.get(event.getEntityType()));
+            if (event.getEventType() != null) writeVarint(out, table.get(event.getEventType()));
+            if (event.getSource() != null) writeVarint(out, table.get(event.getSource()));
+            if (instant != null) {
+                writeVarint(out, zigZag(instant.getEpochSecond() - previousSeconds));
+                writeVarint(out, instant.getNano());
+                previousSeconds = instant.getEpochSecond();
+            } else if (event.getTimestamp() != null) {
+                writeVarint(out, table.get(event.getTimestamp()));
+            }
+
+            Map<String, Object> metadata = event.getMetadata();
+            int metadataSize = metadata != null ? metadata.size() : 0;
+            writeVarint(out, metadataSize);
+            if (metadataSize > 0) {
+                for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                    writeVarint(out, table.get(entry.getKey()));
+                    writeValue(out, table, entry.getValue());
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a batch produced by {@link #encode(List)}. Integer metadata values
+     * come back as Integer or Long depending on how they were encoded.
+     *
+     * @throws IllegalArgumentException if {@code data} is truncated or malformed
+     */
+    public List<HumifortisEvent> decode(byte[] data) {
+        Reader in = new Reader(data);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IllegalArgumentException("Not a Humifortis binary event batch");
+            }
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary event batch version: " + version);
+        }
+
+        int tableSize = in.readCount();
+        String[] table = new String[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            int length = in.readCount();
+            table[i] = new String(data, in.take(length), length, StandardCharsets.UTF_8);
+        }
+
+        int eventCount = in.readCount();
+        List<HumifortisEvent> events = new ArrayList<>(eventCount);
+        long previousSeconds = 0;
+        for (int i = 0; i < eventCount; i++) {
+            HumifortisEvent event = new HumifortisEvent();
+            int presence = in.readByte();
+            if ((presence & HAS_ENTITY_ID) != 0) event.setEntityId(in.readString(table));
+            if ((presence & HAS_ENTITY_TYPE) != 0) event.setEntityType(in.readString(table));
+            if ((presence & HAS_EVENT_TYPE) != 0) event.setEventType(in.readString(table));
+            if ((presence & HAS_SOURCE) != 0) event.setSource(in.readString(table));
+            if ((presence & HAS_TIMESTAMP) != 0) {
+                if ((presence & TIMESTAMP_AS_STRING) != 0) {
+                    event.setTimestamp(in.readString(table));
+                } else {
+                    long seconds = previousSeconds + unZigZag(in.readVarint());
+                    long nanos = in.readVarint();
+                    if (seconds < Instant.MIN.getEpochSecond() || seconds > Instant.MAX.getEpochSecond()
+                            || nanos < 0 || nanos >= 1_000_000_000L) {
+                        throw new IllegalArgumentException("Timestamp out of range in binary event batch");
+                    }
+                    event.setTimestamp(Instant.ofEpochSecond(seconds, nanos).toString());
+                    previousSeconds = seconds;
+                }
+            }
+
+            int metadataSize = in.readCount();
+            Map<String, Object> metadata = new HashMap<>(Math.max(4, metadataSize * 2));
+            for (int j = 0; j < metadataSize; j++) {
+                String key = in.readString(table);
+                metadata.put(key, readValue(in, table));
+            }
+            event.setMetadata(metadata);
+            events.add(event);
+        }
+        if (in.remaining() != 0) {
+            throw new IllegalArgumentException("Trailing bytes after binary event batch");
+        }
+        return events;
+    }
+
+    private static void intern(Map<String, Integer> table, String value) {
+        if (value != null) {
+            table.putIfAbsent(value, table.size());
+        }
+    }
+
+    private static Instant parseInstant(String timestamp) {
+        try {
+            Instant instant = Instant.parse(timestamp);
+            // Only take the compact path when decoding reproduces the exact string
+            return instant.toString().equals(timestamp) ? instant : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int tagOf(Object value) {
+        if (value == null) return TAG_NULL;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) return TAG_INT;
+        if (value instanceof Long) return TAG_LONG;
+        if (value instanceof Double || value instanceof Float) return TAG_DOUBLE;
+        if (value instanceof Boolean) return TAG_BOOLEAN;
+        return TAG_STRING;
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, Map<String, Integer> table, Object value) {
+        int tag = tagOf(value);
+        out.write(tag);
+        switch (tag) {
+            case TAG_STRING -> writeVarint(out, table.get(value.toString()));
+            case TAG_INT, TAG_LONG -> writeVarint(out, zigZag(((Number) value).longValue()));
+            case TAG_DOUBLE -> {
+                long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                for (int shift = 0; shift < 64; shift += 8) {
+                    out.write((int) (bits >>> shift) & 0xff);
+                }
+            }
+            case TAG_BOOLEAN -> out.write((Boolean) value ? 1 : 0);
+            default -> { }
+        }
+    }
+
+    private static Object readValue(Reader in, String[] table) {
+        int tag = in.readByte();
+        return switch (tag) {
+            case TAG_NULL -> null;
+            case TAG_STRING -> in.readString(table);
+            case TAG_INT -> (int) unZigZag(in.readVarint());
+            case TAG_LONG -> unZigZag(in.readVarint());
+            case TAG_DOUBLE -> {
+                long bits = 0;
+                for (int shift = 0; shift < 64; shift += 8) {
+                    bits |= (long) in.readByte() << shift;
+                }
+                yield Double.longBitsToDouble(bits);
+            }
+            case TAG_BOOLEAN -> in.readByte() != 0;
+            default -> throw new IllegalArgumentException("Unknown metadata value tag: " + tag);
+        };
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated binary event batch");
+            }
+            return data[position++] & 0xff;
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in binary event batch");
+        }
+
+        int readCount() {
+            long value = readVarint();
+            if (value < 0 || value > remaining()) {
+                throw new IllegalArgumentException("Invalid length in binary event batch: " + value);
+            }
+            return (int) value;
+        }
+
+        String readString(String[] table) {
+            long index = readVarint();
+            if (index < 0 || index >= table.length) {
+                throw new IllegalArgumentException("Invalid string index in binary event batch: " + index);
+            }
+            return table[(int) index];
+        }
+
+        int take(int length) {
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        int remaining() {
+            return data.length - position;
+        }
+    }
+}
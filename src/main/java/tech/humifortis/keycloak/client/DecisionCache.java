@@ -0,0 +1,208 @@
+package tech.humifortis.keycloak.client;
+
+import org.jboss.logging.Logger;
+import tech.humifortis.keycloak.model.RiskDecision;
+import tech.humifortis.keycloak.tracing.Span;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Stale-while-revalidate cache for risk decisions.
+ *
+ * Decisions are cached for the {@code ttl_seconds} the SaaS returns (never when
+ * it returns none). For a grace period after expiry an ALLOW or CHALLENGE_MFA
+ * decision is still served immediately while one background refresh per
+ * entity fetches a new one on the given executor; if the executor rejects
+ * the refresh, the stale decision is still served and the next stale hit
+ * tries again. An expired BLOCK is always refetched in line, and
+ * if that fetch fails the stale BLOCK is served rather than the fallback, so
+ * staleness can never turn a block into an allow.
+ *
+ * When the cache is full, expired entries are swept at most once per
+ * {@link #SWEEP_INTERVAL_NANOS}; until then, or if nothing has expired,
+ * new decisions are returned without being cached.
+ */
+public class DecisionCache {
+    private static final Logger logger = Logger.getLogger(DecisionCache.class);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public interface Loader {
+        RiskDecision load(String entityId) throws SaasException;
+    }
+
+    private final long graceNanos;
+    private final int maxEntries;
+    private final Loader refresher;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepNanos;
+
+    private final LongAdder freshHits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder staleBlockHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+
+    /**
+     * @param refresher loader used for background refreshes, which run outside
+     *                  the login that triggered them
+     * @param refreshExecutor runs the background refreshes; should be bounded
+     */
+    public DecisionCache(long graceMs, int maxEntries, Loader refresher, Executor refreshExecutor) {
+        this(graceMs, maxEntries, refresher, refreshExecutor, System::nanoTime);
+    }
+
+    // Tests pass a manual clock so expiry does not depend on sleeping
+    DecisionCache(long graceMs, int maxEntries, Loader refresher, Executor refreshExecutor, LongSupplier nanoClock) {
+        this.graceNanos = graceMs * 1_000_000L;
+        this.maxEntries = maxEntries;
+        this.refresher = refresher;
+        this.refreshExecutor = refreshExecutor;
+        this.nanoClock = nanoClock;
+        this.nextSweepNanos = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    public RiskDecision get(String entityId, Loader loader) throws SaasException {
+        return get(entityId, loader, null);
+    }
+
+    /**
+     * @param lookupSpan ended as soon as the cache has been checked, before
+     *                   any fetch; may be null
+     */
+    public RiskDecision get(String entityId, Loader loader, Span lookupSpan) throws SaasException {
+        long now = nanoClock.getAsLong();
+        Entry entry = entries.get(entityId);
+        if (lookupSpan != null) {
+            lookupSpan.end();
+        }
+        if (entry != null) {
+            if (now - entry.expiresAtNanos < 0) {
+                freshHits.increment();
+                return entry.decision;
+            }
+            if (now - entry.staleUntilNanos < 0) {
+                if (entry.decision.getAction() != RiskDecision.Action.BLOCK) {
+                    staleHits.increment();
+                    refreshInBackground(entityId, entry);
+                    return entry.decision;
+                }
+                try {
+                    return loadAndStore(entityId, loader);
+                } catch (SaasException e) {
+                    staleBlockHits.increment();
+                    logger.debugf("Refresh of BLOCK decision for %s failed, keeping it: %s", entityId, e.getMessage());
+                    return entry.decision;
+                }
+            }
+        }
+        misses.increment();
+        return loadAndStore(entityId, loader);
+    }
+
+    private void refreshInBackground(String entityId, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    loadAndStore(entityId, refresher);
+                } catch (Exception e) {
+                    refreshFailures.increment();
+                    logger.debugf("Background refresh of decision for %s failed: %s", entityId, e.getMessage());
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+            refreshes.increment();
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+            logger.debugf("Background refresh of decision for %s rejected, serving stale decision", entityId);
+        }
+    }
+
+    private RiskDecision loadAndStore(String entityId, Loader loader) throws SaasException {
+        RiskDecision decision = loader.load(entityId);
+        Integer ttlSeconds = decision.getTtlSeconds();
+        if (ttlSeconds == null || ttlSeconds <= 0 || decision.getAction() == null) {
+            entries.remove(entityId);
+            return decision;
+        }
+        long now = nanoClock.getAsLong();
+        if (entries.size() >= maxEntries && !entries.containsKey(entityId)) {
+            long nextSweep = nextSweepNanos.get();
+            // One thread per interval pays for the O(n) sweep; other misses skip caching
+            if (now - nextSweep >= 0 && nextSweepNanos.compareAndSet(nextSweep, now + SWEEP_INTERVAL_NANOS)) {
+                evictExpired(now);
+            }
+            if (entries.size() >= maxEntries) {
+                return decision;
+            }
+        }
+        long expiresAt = now + ttlSeconds * 1_000_000_000L;
+        entries.put(entityId, new Entry(decision, expiresAt, expiresAt + graceNanos));
+        return decision;
+    }
+
+    private void evictExpired(long now) {
+        entries.values().removeIf(entry -> now - entry.staleUntilNanos >= 0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getFreshHits() {
+        return freshHits.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getStaleBlockHits() {
+        return staleBlockHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size %d, fresh hits %d, stale hits %d, stale BLOCK hits %d, misses %d, "
+                        + "refreshes %d (failed %d)", size(), getFreshHits(), getStaleHits(), getStaleBlockHits(),
+                getMisses(), getRefreshes(), getRefreshFailures());
+    }
+
+    private static final class Entry {
+        private final RiskDecision decision;
+        private final long expiresAtNanos;
+        private final long staleUntilNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(RiskDecision decision, long expiresAtNanos, long staleUntilNanos) {
+            this.decision = decision;
+            this.expiresAtNanos = expiresAtNanos;
+            this.staleUntilNanos = staleUntilNanos;
+        }
+    }
+}
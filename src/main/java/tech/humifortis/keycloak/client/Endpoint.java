@@ -0,0 +1,88 @@
+package tech.humifortis.keycloak.client;
+
+/**
+ * Health and latency statistics for one SaaS base URL.
+ *
+ * Latency and error rate are exponentially weighted moving averages. After
+ * {@link #FAILURES_TO_EJECT} consecutive failures the endpoint is ejected for
+ * a cooldown that doubles on every repeated ejection; once the cooldown has
+ * elapsed it is eligible again and the next request (or active probe) decides
+ * whether it recovers.
+ */
+public class Endpoint {
+    private static final double ALPHA = 0.3;
+    private static final int FAILURES_TO_EJECT = 3;
+    private static final long BASE_COOLDOWN_MS = 5_000;
+    private static final long MAX_COOLDOWN_MS = 120_000;
+    // Milliseconds added to the latency score at a 100% error rate
+    private static final double ERROR_PENALTY_MS = 1000.0;
+
+    private final String url;
+    private double latencyMs;
+    private double errorRate;
+    private int consecutiveFailures;
+    private long cooldownMs = BASE_COOLDOWN_MS;
+    private long ejectedUntilNanos;
+    private boolean ejected;
+
+    public Endpoint(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public synchronized void recordSuccess(long latencyNanos) {
+        double sample = latencyNanos / 1_000_000.0;
+        latencyMs = latencyMs == 0 ? sample : latencyMs + ALPHA * (sample - latencyMs);
+        errorRate += ALPHA * (0 - errorRate);
+        consecutiveFailures = 0;
+        if (ejected) {
+            ejected = false;
+            cooldownMs = BASE_COOLDOWN_MS;
+        }
+    }
+
+    public synchronized void recordFailure() {
+        errorRate += ALPHA * (1 - errorRate);
+        consecutiveFailures++;
+        // A failure while half-open (ejected, cooldown over) re-ejects immediately
+        if (consecutiveFailures >= FAILURES_TO_EJECT || ejected) {
+            if (ejected) {
+                cooldownMs = Math.min(MAX_COOLDOWN_MS, cooldownMs * 2);
+            }
+            ejected = true;
+            ejectedUntilNanos = System.nanoTime() + cooldownMs * 1_000_000L;
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * False while the endpoint is in its ejection cooldown.
+     */
+    public synchronized boolean isAvailable(long nowNanos) {
+        return !ejected || nowNanos - ejectedUntilNanos >= 0;
+    }
+
+    public synchronized boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * Lower is better. Untried endpoints score zero so they get tried at least
+     * once; the error penalty is added rather than multiplied so an endpoint
+     * that has only ever failed still ranks behind healthy ones.
+     */
+    public synchronized double score() {
+        return latencyMs + ERROR_PENALTY_MS * errorRate;
+    }
+
+    public synchronized double getLatencyMs() {
+        return latencyMs;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+}
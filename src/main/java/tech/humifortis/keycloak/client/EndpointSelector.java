@@ -0,0 +1,70 @@
+package tech.humifortis.keycloak.client;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the configured SaaS endpoints for each request: available endpoints
+ * by ascending latency score, then ejected ones as a last resort.
+ */
+public class EndpointSelector {
+    private static final Logger logger = Logger.getLogger(EndpointSelector.class);
+
+    private final List<Endpoint> endpoints;
+
+    public EndpointSelector(List<String> urls) {
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            list.add(new Endpoint(url));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+    }
+
+    public Endpoint primary() {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.nanoTime();
+        Endpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                double score = endpoint.score();
+                if (score < bestScore) {
+                    best = endpoint;
+                    bestScore = score;
+                }
+            }
+        }
+        return best != null ? best : endpoints.get(0);
+    }
+
+    public List<Endpoint> ordered() {
+        if (endpoints.size() == 1) {
+            return endpoints;
+        }
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        List<Endpoint> ejected = new ArrayList<>(1);
+        for (Endpoint endpoint : endpoints) {
+            (endpoint.isAvailable(now) ? available : ejected).add(endpoint);
+        }
+        available.sort(Comparator.comparingDouble(Endpoint::score));
+        available.addAll(ejected);
+        return available;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    void logFailover(Endpoint from, String reason) {
+        if (endpoints.size() > 1) {
+            logger.warnf("Humifortis endpoint %s failed (%s), trying next endpoint", from.getUrl(), reason);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package tech.humifortis.keycloak.client;
+
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups events into batches, flushed when {@code batchSize} events are
+ * buffered or {@code lingerMs} after the first event of a batch arrived,
+ * whichever comes first.
+ */
+public class EventBatcher {
+    private final int batchSize;
+    private final long lingerMs;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<List<HumifortisEvent>> sink;
+
+    private List<HumifortisEvent> buffer;
+    private ScheduledFuture<?> lingerTask;
+
+    public EventBatcher(int batchSize, long lingerMs, ScheduledExecutorService scheduler, 
+                        Consumer<List<HumifortisEvent>> sink) {
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.buffer = new ArrayList<>(batchSize);
+    }
+
+    public void add(HumifortisEvent event) {
+        List<HumifortisEvent> full = null;
+        synchronized (this) {
+            buffer.add(event);
+            if (buffer.size() >= batchSize) {
+                full = drain();
+            } else if (buffer.size() == 1) {
+                lingerTask = scheduler.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            sink.accept(full);
+        }
+    }
+
+    public void flush() {
+        List<HumifortisEvent> pending;
+        synchronized (this) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            pending = drain();
+        }
+        sink.accept(pending);
+    }
+
+    private List<HumifortisEvent> drain() {
+        List<HumifortisEvent> out = buffer;
+        buffer = new ArrayList<>(batchSize);
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,96 @@
+package tech.humifortis.keycloak.client;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip encoder for outbound request bodies.
+ *
+ * Each thread keeps its own Deflater, CRC and output buffer so the
+ * send path does not allocate native zlib state per request.
+ */
+public class PayloadCompressor {
+    public static final String ENCODING_GZIP = "gzip";
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    // Buffers that grew past this size are dropped instead of kept per thread
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final int minBytes;
+
+    public PayloadCompressor(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    public boolean shouldCompress(byte[] body) {
+        return body.length >= minBytes;
+    }
+
+    public byte[] gzip(byte[] body) {
+        State state = STATE.get();
+        Deflater deflater = state.deflater;
+        CRC32 crc = state.crc;
+        ReusableBuffer out = state.buffer;
+        deflater.reset();
+        crc.reset();
+        out.reset();
+
+        // Fixed 10-byte header: magic, CM=deflate, no flags, no mtime, unknown OS
+        out.write(GZIP_MAGIC & 0xff);
+        out.write(GZIP_MAGIC >> 8);
+        out.write(Deflater.DEFLATED);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0xff);
+
+        crc.update(body, 0, body.length);
+        deflater.setInput(body);
+        deflater.finish();
+        byte[] chunk = state.chunk;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, body.length);
+
+        byte[] result = out.toByteArray();
+        if (out.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            state.buffer = new ReusableBuffer();
+        }
+        return result;
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    private static final class State {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[INITIAL_BUFFER_SIZE];
+        private ReusableBuffer buffer = new ReusableBuffer();
+    }
+
+    private static final class ReusableBuffer extends ByteArrayOutputStream {
+        ReusableBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
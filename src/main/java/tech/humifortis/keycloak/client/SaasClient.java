@@ -6,6 +6,8 @@ import com.google.gson.JsonObject;
 import org.jboss.logging.Logger;
 import tech.humifortis.keycloak.model.HumifortisEvent;
 import tech.humifortis.keycloak.model.RiskDecision;
+import tech.humifortis.keycloak.tracing.LoginTrace;
+import tech.humifortis.keycloak.tracing.Span;
 
 import java.net.URI;
 import java.net.URLEncoder;
@@ -14,95 +16,486 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SaasClient {
     private static final Logger logger = Logger.getLogger(SaasClient.class);
     private static final String CONNECTOR_VERSION = "1.0.0";
+    private static final String JSON_CONTENT_TYPE = "application/json";
     
-    private final String apiUrl;
+    // How long to send uncompressed, or unbatched, after the SaaS rejected gzip or the batch endpoint
+    private static final long FALLBACK_RETRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    // Background decision refreshes per client; stale hits beyond the queue are served without one
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_SIZE = 64;
+    private static final AtomicInteger REFRESH_THREAD_COUNTER = new AtomicInteger();
+
+    // Shared by all clients for batch linger flushes, endpoint probes and metrics logging
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "humifortis-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final EndpointSelector endpoints;
     private final String apiKey;
     private final HttpClient httpClient;
     private final Gson gson;
     private final int timeoutMs;
+    private final long fallbackRetryNanos;
+    private final PayloadCompressor compressor;
+    // 0 while gzip is accepted, otherwise the nanoTime at which to try it again
+    private volatile long compressionRetryAtNanos;
+    // 0 while POST /events/batch is available, otherwise the nanoTime at which to try it again
+    private volatile long batchRetryAtNanos;
+    private final BinaryEventCodec binaryCodec;
+    private final AdaptiveConcurrencyLimiter eventLimiter;
+    private final EventBatcher eventBatcher;
+    private final ThreadPoolExecutor refreshExecutor;
+    private final DecisionCache decisionCache;
+    private final ScheduledFuture<?> probeTask;
+    private final AtomicInteger probesInFlight = new AtomicInteger();
+    private final ScheduledFuture<?> metricsTask;
 
     public SaasClient(SaasConfig config) {
-        this.apiUrl = config.getApiUrl();
+        this(config, FALLBACK_RETRY_NANOS);
+    }
+
+    SaasClient(SaasConfig config, long fallbackRetryNanos) {
+        this.endpoints = new EndpointSelector(config.getApiUrls());
         this.apiKey = config.getApiKey();
         this.timeoutMs = config.getTimeoutMs();
+        this.fallbackRetryNanos = fallbackRetryNanos;
+        // A connect attempt may only use its endpoint's share of the budget, leaving time to fail over
         this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .connectTimeout(Duration.ofMillis(Math.max(1, timeoutMs / endpoints.getEndpoints().size())))
                 .build();
         this.gson = new GsonBuilder()
                 .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
                 .create();
+        if (PayloadCompressor.ENCODING_GZIP.equals(config.getCompression())) {
+            this.compressor = new PayloadCompressor(config.getCompressionMinBytes());
+        } else {
+            if (!"none".equals(config.getCompression())) {
+                logger.warnf("Unsupported HUMIFORTIS_COMPRESSION value '%s', sending uncompressed", 
+                        config.getCompression());
+            }
+            this.compressor = null;
+        }
+        this.binaryCodec = "binary".equals(config.getWireFormat()) ? new BinaryEventCodec() : null;
+        this.eventLimiter = new AdaptiveConcurrencyLimiter(
+                Math.min(4, config.getEventMaxConcurrency()), 1, config.getEventMaxConcurrency(),
+                config.getEventQueueSize(), timeoutMs / 2);
+        this.eventBatcher = config.getEventBatchSize() > 1 
+                ? new EventBatcher(config.getEventBatchSize(), config.getEventLingerMs(), SCHEDULER, this::sendBatch) 
+                : null;
+        // Stale-while-revalidate is opt-in; without a grace period decisions are not cached at all
+        this.refreshExecutor = config.getStaleGraceMs() > 0 ? newRefreshExecutor() : null;
+        this.decisionCache = refreshExecutor != null 
+                ? new DecisionCache(config.getStaleGraceMs(), config.getDecisionCacheMaxEntries(), 
+                        entityId -> fetchRiskDecision(entityId, null), refreshExecutor) 
+                : null;
+        this.probeTask = endpoints.getEndpoints().size() > 1 && config.getHealthProbeIntervalMs() > 0 
+                ? SCHEDULER.scheduleWithFixedDelay(() -> probeEjectedEndpoints(System.nanoTime()), 
+                        config.getHealthProbeIntervalMs(), config.getHealthProbeIntervalMs(), TimeUnit.MILLISECONDS) 
+                : null;
+        this.metricsTask = config.getMetricsLogIntervalMs() > 0 
+                ? SCHEDULER.scheduleWithFixedDelay(this::logMetrics, config.getMetricsLogIntervalMs(), 
+                        config.getMetricsLogIntervalMs(), TimeUnit.MILLISECONDS) 
+                : null;
+    }
+
+    private static ThreadPoolExecutor newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE), r -> {
+                    Thread thread = new Thread(r, "humifortis-refresh-" + REFRESH_THREAD_COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public EndpointSelector getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Decision cache with freshness counters, or null when
+     * HUMIFORTIS_STALE_GRACE_MS is not set.
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    public AdaptiveConcurrencyLimiter getEventLimiter() {
+        return eventLimiter;
+    }
+
+    /**
+     * Queues an event for delivery. With HUMIFORTIS_EVENT_BATCH_SIZE above 1 the
+     * event is sent as part of a batch; otherwise, or while the SaaS has no
+     * batch endpoint, it is posted on its own. Failures are logged, not
+     * reported to the caller.
+     */
+    public void enqueueEvent(HumifortisEvent event) {
+        long batchRetryAt = batchRetryAtNanos;
+        if (eventBatcher != null && (batchRetryAt == 0 || System.nanoTime() - batchRetryAt >= 0)) {
+            eventBatcher.add(event);
+            return;
+        }
+        sendSingle(event);
+    }
+
+    private void sendSingle(HumifortisEvent event) {
+        sendEventAsync(event)
+                .exceptionally(ex -> {
+                    logger.warnf("Failed to send event to Humifortis SaaS: %s - %s", 
+                            event.getEventType(), ex.getMessage());
+                    return null;
+                });
+    }
+
+    private void sendBatch(List<HumifortisEvent> events) {
+        sendEventsAsync(events)
+                .exceptionally(ex -> {
+                    logger.warnf("Failed to send %d events to Humifortis SaaS: %s", events.size(), ex.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Hands any buffered events to the delivery limiter without waiting for
+     * the linger timeout.
+     */
+    public void flushEvents() {
+        if (eventBatcher != null) {
+            eventBatcher.flush();
+        }
+    }
+
+    /**
+     * Sends any buffered events and stops this client's background tasks.
+     * Events already handed to the delivery limiter are still sent; later
+     * events are dropped. Risk lookups keep working, but stale cached
+     * decisions are no longer refreshed in the background.
+     */
+    public void close() {
+        if (probeTask != null) {
+            probeTask.cancel(false);
+        }
+        if (metricsTask != null) {
+            metricsTask.cancel(false);
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdown();
+        }
+        flushEvents();
+        eventLimiter.close();
+    }
+
+    /**
+     * After {@link #close()}, waits for the events handed over before closing
+     * to be delivered (or to fail).
+     *
+     * @return false if deliveries were still running when the timeout elapsed
+     */
+    public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        return eventLimiter.awaitTermination(timeoutMs);
+    }
+
+    /**
+     * Periodic INFO lines with the delivery limiter and decision cache state,
+     * controlled by HUMIFORTIS_METRICS_LOG_INTERVAL_MS.
+     */
+    private void logMetrics() {
+        logger.infof("Humifortis event delivery to %s: %s", endpoints.primary().getUrl(), eventLimiter);
+        if (decisionCache != null) {
+            logger.infof("Humifortis decision cache: %s", decisionCache);
+        }
     }
 
     public CompletableFuture<Void> sendEventAsync(HumifortisEvent event) {
-        return CompletableFuture.runAsync(() -> {
-            try {
+        return eventLimiter.submit(() -> {
+            JsonObject payload = new JsonObject();
+            payload.add("event", gson.toJsonTree(event));
+            int status = postEvents("/events", JSON_CONTENT_TYPE, 
+                    payload.toString().getBytes(StandardCharsets.UTF_8), event.getEventType());
+            return !isServerFailure(status);
+        });
+    }
+
+    /**
+     * Posts {@code events} to {@code /events/batch}. If the SaaS answers 404 or
+     * 405 the events are resent one by one to {@code /events}, and later events
+     * skip batching for a while before the batch endpoint is tried again.
+     */
+    public CompletableFuture<Void> sendEventsAsync(List<HumifortisEvent> events) {
+        return eventLimiter.submit(() -> {
+            String description = events.size() + " events";
+            int status;
+            if (binaryCodec != null) {
+                status = postEvents("/events/batch", BinaryEventCodec.CONTENT_TYPE, binaryCodec.encode(events), 
+                        description);
+            } else {
                 JsonObject payload = new JsonObject();
-                payload.add("event", gson.toJsonTree(event));
-                
-                String requestUrl = apiUrl + "/events";
-                String payloadJson = payload.toString();
-                
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(requestUrl))
-                        .header("Content-Type", "application/json")
-                        .header("X-API-Key", apiKey)
-                        .header("X-Connector-Type", "keycloak")
-                        .header("X-Connector-Version", CONNECTOR_VERSION)
-                        .POST(HttpRequest.BodyPublishers.ofString(payloadJson))
-                        .timeout(Duration.ofMillis(timeoutMs))
-                        .build();
-
-                logger.debugf("Sending event to SaaS - URL: %s, API Key present: %s, Event Type: %s", 
-                        requestUrl, apiKey != null && !apiKey.isEmpty(), event.getEventType());
-                logger.debugf("Full payload being sent: %s", payloadJson);
-
-                HttpResponse<String> response = httpClient.send(request, 
-                        HttpResponse.BodyHandlers.ofString());
-                
-                if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                    logger.debugf("Event sent successfully: %s", event.getEventType());
-                } else {
-                    logger.warnf("Failed to send event. Status: %d, Body: %s, URL: %s", 
-                            response.statusCode(), response.body(), requestUrl);
-                }
-            } catch (Exception e) {
-                logger.errorf("Exception sending event to SaaS: %s", e.getMessage());
-                throw new CompletionException("Failed to send event to Humifortis SaaS", e);
+                payload.add("events", gson.toJsonTree(events));
+                status = postEvents("/events/batch", JSON_CONTENT_TYPE, 
+                        payload.toString().getBytes(StandardCharsets.UTF_8), description);
+            }
+            if (status == 404 || status == 405) {
+                logger.warnf("SaaS has no batch endpoint (status %d), posting events individually for %d minutes", 
+                        status, TimeUnit.NANOSECONDS.toMinutes(fallbackRetryNanos));
+                // Low bit set so the deadline can never collide with the "available" value 0
+                batchRetryAtNanos = (System.nanoTime() + fallbackRetryNanos) | 1;
+                events.forEach(this::sendSingle);
+                return true;
             }
+            if (status >= 200 && status < 300 && batchRetryAtNanos != 0) {
+                batchRetryAtNanos = 0;
+            }
+            return !isServerFailure(status);
         });
     }
 
-    public RiskDecision getRiskDecision(String entityId) throws SaasException {
+    /**
+     * Posts an event payload and returns the final HTTP status. 429 and 5xx
+     * are overload signals for the delivery limiter.
+     */
+    private int postEvents(String path, String contentType, byte[] body, String description) {
+        Endpoint endpoint = endpoints.primary();
+        long start = System.nanoTime();
         try {
-            String encodedEntityId = URLEncoder.encode(entityId, StandardCharsets.UTF_8);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl + "/risk/" + encodedEntityId))
-                    .header("X-API-Key", apiKey)
-                    .timeout(Duration.ofMillis(timeoutMs))
-                    .GET()
-                    .build();
+            String requestUrl = endpoint.getUrl() + path;
+
+            logger.debugf("Sending event to SaaS - URL: %s, API Key present: %s, Event: %s", 
+                    requestUrl, apiKey != null && !apiKey.isEmpty(), description);
+            if (logger.isDebugEnabled() && JSON_CONTENT_TYPE.equals(contentType)) {
+                logger.debugf("Full payload being sent: %s", new String(body, StandardCharsets.UTF_8));
+            }
 
-            HttpResponse<String> response = httpClient.send(request,
+            long retryAt = compressionRetryAtNanos;
+            boolean compress = compressor != null && compressor.shouldCompress(body) 
+                    && (retryAt == 0 || System.nanoTime() - retryAt >= 0);
+            HttpResponse<String> response = httpClient.send(buildEventRequest(requestUrl, contentType, body, compress), 
                     HttpResponse.BodyHandlers.ofString());
 
-            if (response.statusCode() == 200) {
-                return gson.fromJson(response.body(), RiskDecision.class);
-            } else if (response.statusCode() == 404) {
-                logger.debugf("Entity not found in SaaS, defaulting to allow: %s", entityId);
-                return RiskDecision.allow();
+            if (compress && isEncodingRejected(response)) {
+                // Server does not understand Content-Encoding; send uncompressed for a while and resend as-is
+                logger.warnf("SaaS rejected %s request body (status %d), sending uncompressed for %d minutes", 
+                        PayloadCompressor.ENCODING_GZIP, response.statusCode(), 
+                        TimeUnit.NANOSECONDS.toMinutes(fallbackRetryNanos));
+                // Low bit set so the deadline can never collide with the "accepted" value 0
+                compressionRetryAtNanos = (System.nanoTime() + fallbackRetryNanos) | 1;
+                response = httpClient.send(buildEventRequest(requestUrl, contentType, body, false), 
+                        HttpResponse.BodyHandlers.ofString());
+            } else if (compress && retryAt != 0) {
+                compressionRetryAtNanos = 0;
+            }
+            
+            if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                logger.debugf("Event sent successfully: %s", description);
             } else {
-                throw new SaasException("API error: " + response.statusCode() + " - " + response.body());
+                logger.warnf("Failed to send event. Status: %d, Body: %s, URL: %s", 
+                        response.statusCode(), response.body(), requestUrl);
             }
-        } catch (SaasException e) {
-            throw e;
+            if (isServerFailure(response.statusCode())) {
+                endpoint.recordFailure();
+            } else {
+                endpoint.recordSuccess(System.nanoTime() - start);
+            }
+            return response.statusCode();
         } catch (Exception e) {
-            throw new SaasException("Failed to get risk decision", e);
+            endpoint.recordFailure();
+            logger.errorf("Exception sending event to SaaS: %s", e.getMessage());
+            throw new CompletionException("Failed to send event to Humifortis SaaS", e);
+        }
+    }
+
+    private HttpRequest buildEventRequest(String requestUrl, String contentType, byte[] body, boolean compress) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(requestUrl))
+                .header("Content-Type", contentType)
+                .header("X-API-Key", apiKey)
+                .header("X-Connector-Type", "keycloak")
+                .header("X-Connector-Version", CONNECTOR_VERSION)
+                .timeout(Duration.ofMillis(timeoutMs));
+        if (compress) {
+            builder.header("Content-Encoding", PayloadCompressor.ENCODING_GZIP);
+            body = compressor.gzip(body);
+        }
+        return builder.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    private static boolean isServerFailure(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * 415, or a 400 whose body names the content encoding. Other 400s are
+     * validation errors about the events themselves.
+     */
+    private static boolean isEncodingRejected(HttpResponse<String> response) {
+        if (response.statusCode() == 415) {
+            return true;
+        }
+        String body = response.body();
+        return response.statusCode() == 400 && body != null 
+                && body.toLowerCase(Locale.ROOT).contains("encoding");
+    }
+
+    public RiskDecision getRiskDecision(String entityId) throws SaasException {
+        return getRiskDecision(entityId, null);
+    }
+
+    /**
+     * Fetches the decision for {@code entityId}, recording the HTTP round trip
+     * and response parsing as spans of {@code trace} and propagating it to the
+     * SaaS as a W3C {@code traceparent} header.
+     *
+     * Endpoints are tried fastest first. Each attempt gets an equal share of
+     * what is left of the timeout across the endpoints not yet tried, so a
+     * hanging first endpoint cannot use up the whole budget. A connection
+     * error, timeout, 429 or 5xx moves on to the next endpoint; failover never
+     * extends the overall budget.
+     *
+     * With stale-while-revalidate enabled the decision may come from
+     * {@link DecisionCache}; background refreshes are not traced.
+     */
+    public RiskDecision getRiskDecision(String entityId, LoginTrace trace) throws SaasException {
+        if (decisionCache == null) {
+            return fetchRiskDecision(entityId, trace);
+        }
+        Span cacheSpan = trace != null ? trace.span("cache.lookup") : null;
+        return decisionCache.get(entityId, id -> fetchRiskDecision(id, trace), cacheSpan);
+    }
+
+    private RiskDecision fetchRiskDecision(String entityId, LoginTrace trace) throws SaasException {
+        String encodedEntityId = URLEncoder.encode(entityId, StandardCharsets.UTF_8);
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        SaasException lastFailure = null;
+
+        List<Endpoint> ordered = endpoints.ordered();
+        for (int i = 0; i < ordered.size(); i++) {
+            Endpoint endpoint = ordered.get(i);
+            long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remainingMs <= 0) {
+                break;
+            }
+            long attemptMs = Math.max(1, remainingMs / (ordered.size() - i));
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(URI.create(endpoint.getUrl() + "/risk/" + encodedEntityId))
+                    .header("X-API-Key", apiKey)
+                    .timeout(Duration.ofMillis(attemptMs))
+                    .GET();
+
+            HttpResponse<String> response;
+            long start = System.nanoTime();
+            Span sendSpan = trace != null ? trace.span("saas.http_send") : null;
+            try {
+                if (trace != null) {
+                    builder.header("traceparent", trace.traceparent(sendSpan));
+                }
+                response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SaasException("Failed to get risk decision", e);
+            } catch (Exception e) {
+                if (sendSpan != null) {
+                    sendSpan.setError(e.getClass().getSimpleName());
+                }
+                endpoint.recordFailure();
+                endpoints.logFailover(endpoint, e.getClass().getSimpleName());
+                lastFailure = new SaasException("Failed to get risk decision", e);
+                continue;
+            } finally {
+                if (sendSpan != null) {
+                    sendSpan.end();
+                }
+            }
+
+            if (isServerFailure(response.statusCode())) {
+                endpoint.recordFailure();
+                endpoints.logFailover(endpoint, "status " + response.statusCode());
+                lastFailure = new SaasException("API error: " + response.statusCode() + " - " + response.body());
+                continue;
+            }
+            endpoint.recordSuccess(System.nanoTime() - start);
+            return toDecision(entityId, response, trace);
+        }
+        throw lastFailure != null ? lastFailure : new SaasException("Risk decision timed out");
+    }
+
+    private RiskDecision toDecision(String entityId, HttpResponse<String> response, LoginTrace trace) 
+            throws SaasException {
+        if (response.statusCode() == 200) {
+            Span parseSpan = trace != null ? trace.span("saas.parse") : null;
+            try {
+                return gson.fromJson(response.body(), RiskDecision.class);
+            } catch (Exception e) {
+                throw new SaasException("Failed to get risk decision", e);
+            } finally {
+                if (parseSpan != null) {
+                    parseSpan.end();
+                }
+            }
+        } else if (response.statusCode() == 404) {
+            logger.debugf("Entity not found in SaaS, defaulting to allow: %s", entityId);
+            return RiskDecision.allow();
+        } else {
+            throw new SaasException("API error: " + response.statusCode() + " - " + response.body());
+        }
+    }
+
+    /**
+     * Active health check for ejected endpoints whose cooldown has elapsed,
+     * so they can recover without a login paying for the first attempt.
+     */
+    /**
+     * Sends a health probe to each ejected endpoint whose cooldown is over.
+     * Probes are asynchronous so a hanging endpoint never holds up the shared
+     * scheduler; a round is skipped while the previous one is still running.
+     */
+    void probeEjectedEndpoints(long nowNanos) {
+        if (probesInFlight.get() > 0) {
+            return;
+        }
+        for (Endpoint endpoint : endpoints.getEndpoints()) {
+            if (!endpoint.isEjected() || !endpoint.isAvailable(nowNanos)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(endpoint.getUrl() + "/health"))
+                    .header("X-API-Key", apiKey)
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .GET()
+                    .build();
+            probesInFlight.incrementAndGet();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        probesInFlight.decrementAndGet();
+                        if (error != null) {
+                            endpoint.recordFailure();
+                            logger.debugf("Health probe failed for %s: %s", endpoint.getUrl(), error.getMessage());
+                        } else if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                            endpoint.recordSuccess(System.nanoTime() - start);
+                            logger.infof("Humifortis endpoint %s recovered", endpoint.getUrl());
+                        } else {
+                            endpoint.recordFailure();
+                        }
+                    });
         }
     }
 
@@ -1,25 +1,102 @@
 package tech.humifortis.keycloak.client;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 public class SaasConfig {
-    private final String apiUrl;
+    private final Function<String, String> variables;
+    private final List<String> apiUrls;
     private final String apiKey;
     private final int timeoutMs;
     private final boolean fallbackAllow;
+    private final String compression;
+    private final int compressionMinBytes;
+    private final String wireFormat;
+    private final int eventMaxConcurrency;
+    private final int eventQueueSize;
+    private final int eventBatchSize;
+    private final long eventLingerMs;
+    private final double traceSampleRate;
+    private final String traceExporter;
+    private final int healthProbeIntervalMs;
+    private final long staleGraceMs;
+    private final int decisionCacheMaxEntries;
+    private final long metricsLogIntervalMs;
 
     public SaasConfig() {
-        this.apiUrl = getEnvOrDefault("HUMIFORTIS_API_URL", "https://api.humifortis.educosmic.tech");
+        this(System::getenv);
+    }
+
+    /**
+     * Reads the HUMIFORTIS_* settings from {@code variables} instead of the
+     * process environment, e.g. for tools that run the connector outside Keycloak.
+     */
+    public SaasConfig(Function<String, String> variables) {
+        this.variables = variables;
+        // Comma-separated list; the first entry is used until latency data says otherwise
+        this.apiUrls = Arrays.stream(getEnvOrDefault("HUMIFORTIS_API_URL", "https://api.humifortis.educosmic.tech")
+                        .split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .collect(Collectors.toUnmodifiableList());
+        if (apiUrls.isEmpty()) {
+            throw new IllegalStateException("HUMIFORTIS_API_URL does not contain any endpoint");
+        }
         this.apiKey = getEnvOrThrow("HUMIFORTIS_API_KEY");
         this.timeoutMs = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_TIMEOUT_MS", "5000"));
         this.fallbackAllow = Boolean.parseBoolean(getEnvOrDefault("HUMIFORTIS_FALLBACK_ALLOW", "true"));
+        this.compression = getEnvOrDefault("HUMIFORTIS_COMPRESSION", "gzip").toLowerCase();
+        this.compressionMinBytes = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_COMPRESSION_MIN_BYTES", "1024"));
+        this.wireFormat = getEnvOrDefault("HUMIFORTIS_WIRE_FORMAT", "json").toLowerCase();
+        this.eventMaxConcurrency = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_EVENT_MAX_CONCURRENCY", "32"));
+        this.eventQueueSize = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_EVENT_QUEUE_SIZE", "1000"));
+        this.eventBatchSize = Math.max(1, Integer.parseInt(getEnvOrDefault("HUMIFORTIS_EVENT_BATCH_SIZE", "50")));
+        this.eventLingerMs = Long.parseLong(getEnvOrDefault("HUMIFORTIS_EVENT_LINGER_MS", "200"));
+        this.traceSampleRate = Double.parseDouble(getEnvOrDefault("HUMIFORTIS_TRACE_SAMPLE_RATE", "0"));
+        this.traceExporter = getEnvOrDefault("HUMIFORTIS_TRACE_EXPORTER", "log");
+        this.healthProbeIntervalMs = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_HEALTH_PROBE_INTERVAL_MS", "10000"));
+        this.staleGraceMs = Long.parseLong(getEnvOrDefault("HUMIFORTIS_STALE_GRACE_MS", "0"));
+        this.decisionCacheMaxEntries = Integer.parseInt(getEnvOrDefault("HUMIFORTIS_DECISION_CACHE_MAX_ENTRIES", "10000"));
+        this.metricsLogIntervalMs = Long.parseLong(getEnvOrDefault("HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "60000"));
+    }
+
+    private SaasConfig(SaasConfig base, String apiKey, int timeoutMs, boolean fallbackAllow) {
+        this.variables = base.variables;
+        this.apiUrls = base.apiUrls;
+        this.apiKey = apiKey;
+        this.timeoutMs = timeoutMs;
+        this.fallbackAllow = fallbackAllow;
+        this.compression = base.compression;
+        this.compressionMinBytes = base.compressionMinBytes;
+        this.wireFormat = base.wireFormat;
+        this.eventMaxConcurrency = base.eventMaxConcurrency;
+        this.eventQueueSize = base.eventQueueSize;
+        this.eventBatchSize = base.eventBatchSize;
+        this.eventLingerMs = base.eventLingerMs;
+        this.traceSampleRate = base.traceSampleRate;
+        this.traceExporter = base.traceExporter;
+        this.healthProbeIntervalMs = base.healthProbeIntervalMs;
+        this.staleGraceMs = base.staleGraceMs;
+        this.decisionCacheMaxEntries = base.decisionCacheMaxEntries;
+        this.metricsLogIntervalMs = base.metricsLogIntervalMs;
+    }
+
+    /**
+     * Copy of this configuration with the settings a realm may override.
+     */
+    public SaasConfig withOverrides(String apiKey, int timeoutMs, boolean fallbackAllow) {
+        return new SaasConfig(this, apiKey, timeoutMs, fallbackAllow);
     }
 
     private String getEnvOrDefault(String key, String defaultValue) {
-        String value = System.getenv(key);
+        String value = variables.apply(key);
         return value != null && !value.isEmpty() ? value : defaultValue;
     }
 
     private String getEnvOrThrow(String key) {
-        String value = System.getenv(key);
+        String value = variables.apply(key);
         if (value == null || value.isEmpty()) {
             throw new IllegalStateException("Required environment variable not set: " + key);
         }
@@ -27,7 +104,11 @@ public class SaasConfig {
     }
 
     public String getApiUrl() {
-        return apiUrl;
+        return apiUrls.get(0);
+    }
+
+    public List<String> getApiUrls() {
+        return apiUrls;
     }
 
     public String getApiKey() {
@@ -41,4 +122,56 @@ public class SaasConfig {
     public boolean isFallbackAllow() {
         return fallbackAllow;
     }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public String getWireFormat() {
+        return wireFormat;
+    }
+
+    public int getEventMaxConcurrency() {
+        return eventMaxConcurrency;
+    }
+
+    public int getEventQueueSize() {
+        return eventQueueSize;
+    }
+
+    public int getEventBatchSize() {
+        return eventBatchSize;
+    }
+
+    public long getEventLingerMs() {
+        return eventLingerMs;
+    }
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public String getTraceExporter() {
+        return traceExporter;
+    }
+
+    public int getHealthProbeIntervalMs() {
+        return healthProbeIntervalMs;
+    }
+
+    public long getStaleGraceMs() {
+        return staleGraceMs;
+    }
+
+    public int getDecisionCacheMaxEntries() {
+        return decisionCacheMaxEntries;
+    }
+
+    public long getMetricsLogIntervalMs() {
+        return metricsLogIntervalMs;
+    }
 }
@@ -3,43 +3,36 @@ package tech.humifortis.keycloak.listener;
 import org.jboss.logging.Logger;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventListenerProvider;
-import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
-import tech.humifortis.keycloak.client.SaasClient;
-import tech.humifortis.keycloak.client.SaasConfig;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
 import tech.humifortis.keycloak.mapper.EventMapper;
 import tech.humifortis.keycloak.model.HumifortisEvent;
-
-import java.util.Set;
+import tech.humifortis.keycloak.routing.RealmRoute;
+import tech.humifortis.keycloak.routing.RealmRouter;
 
 public class HumifortisEventListener implements EventListenerProvider {
     private static final Logger logger = Logger.getLogger(HumifortisEventListener.class);
     
-    // Events we care about for security monitoring
-    private static final Set<EventType> MONITORED_EVENTS = Set.of(
-            EventType.LOGIN,
-            EventType.LOGIN_ERROR,
-            EventType.LOGOUT,
-            EventType.REGISTER,
-            EventType.UPDATE_PASSWORD,
-            EventType.UPDATE_EMAIL,
-            EventType.RESET_PASSWORD,
-            EventType.RESET_PASSWORD_ERROR,
-            EventType.CODE_TO_TOKEN_ERROR,
-            EventType.REFRESH_TOKEN_ERROR,
-            EventType.REMOVE_TOTP,
-            EventType.UPDATE_TOTP
-    );
-
-    private final SaasClient saasClient;
+    private final KeycloakSession session;
+    private final RealmRouter router;
     private final EventMapper eventMapper;
 
-    public HumifortisEventListener() {
+    public HumifortisEventListener(KeycloakSession session) {
+        this(session, sharedRouter());
+    }
+
+    public HumifortisEventListener(KeycloakSession session, RealmRouter router) {
+        this.session = session;
+        this.router = router;
+        this.eventMapper = new EventMapper();
+    }
+
+    private static RealmRouter sharedRouter() {
         try {
-            SaasConfig config = new SaasConfig();
-            this.saasClient = new SaasClient(config);
-            this.eventMapper = new EventMapper();
+            RealmRouter router = RealmRouter.getShared();
             logger.info("Humifortis Event Listener initialized successfully");
+            return router;
         } catch (Exception e) {
             logger.error("Failed to initialize Humifortis Event Listener", e);
             throw new RuntimeException("Failed to initialize Humifortis Event Listener", e);
@@ -52,25 +45,21 @@ public class HumifortisEventListener implements EventListenerProvider {
         logger.debugf("Event received: type=%s, realmId=%s, userId=%s, clientId=%s", 
                 event.getType(), event.getRealmId(), event.getUserId(), event.getClientId());
         
-        // Only process events we care about
-        if (!MONITORED_EVENTS.contains(event.getType())) {
-            logger.debugf("Event type %s not in monitored events, skipping", event.getType());
-            return;
-        }
+        try {
+            // Only process events this realm forwards
+            RealmRoute route = router.route(session, event.getRealmId());
+            if (!route.forwards(event.getType())) {
+                logger.debugf("Event type %s not in monitored events, skipping", event.getType());
+                return;
+            }
 
-        logger.debugf("Processing monitored event: %s", event.getType());
+            logger.debugf("Processing monitored event: %s", event.getType());
 
-        try {
             // Map Keycloak event to Humifortis format
             HumifortisEvent humiEvent = eventMapper.fromKeycloakEvent(event);
             
-            // Send to SaaS (async, fire-and-forget)
-            saasClient.sendEventAsync(humiEvent)
-                    .exceptionally(ex -> {
-                        logger.warnf("Failed to send event to Humifortis SaaS: %s - %s", 
-                                event.getType(), ex.getMessage());
-                        return null;
-                    });
+            // Send to SaaS (async, fire-and-forget, batched when configured)
+            route.getClient().enqueueEvent(humiEvent);
             
             logger.debugf("Event queued for sending: %s for user %s", 
                     event.getType(), event.getUserId());
@@ -81,16 +70,17 @@ public class HumifortisEventListener implements EventListenerProvider {
 
     @Override
     public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
+        // Authenticator config changes invalidate the realm's compiled route
+        if (adminEvent.getResourceType() == ResourceType.AUTHENTICATOR_CONFIG 
+                || adminEvent.getResourceType() == ResourceType.AUTH_EXECUTION) {
+            router.invalidate(adminEvent.getRealmId());
+        }
+
         // We can also monitor admin events if needed
         try {
             HumifortisEvent humiEvent = eventMapper.fromKeycloakAdminEvent(adminEvent);
             
-            saasClient.sendEventAsync(humiEvent)
-                    .exceptionally(ex -> {
-                        logger.warnf("Failed to send admin event to Humifortis SaaS: %s", 
-                                ex.getMessage());
-                        return null;
-                    });
+            router.route(session, adminEvent.getRealmId()).getClient().enqueueEvent(humiEvent);
             
             logger.debugf("Admin event queued for sending: %s", 
                     adminEvent.getOperationType());
@@ -5,6 +5,7 @@ import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import tech.humifortis.keycloak.routing.RealmRouter;
 
 public class HumifortisEventListenerFactory implements EventListenerProviderFactory {
     
@@ -12,7 +13,7 @@ public class HumifortisEventListenerFactory implements EventListenerProviderFact
 
     @Override
     public EventListenerProvider create(KeycloakSession session) {
-        return new HumifortisEventListener();
+        return new HumifortisEventListener(session);
     }
 
     @Override
@@ -27,7 +28,8 @@ public class HumifortisEventListenerFactory implements EventListenerProviderFact
 
     @Override
     public void close() {
-        // Nothing to close
+        // Both factories share the router; the second call finds nothing left to close
+        RealmRouter.closeShared();
     }
 
     @Override
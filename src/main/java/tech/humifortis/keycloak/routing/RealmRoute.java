@@ -0,0 +1,63 @@
+package tech.humifortis.keycloak.routing;
+
+import org.keycloak.events.EventType;
+import tech.humifortis.keycloak.client.SaasClient;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled, immutable settings for one realm: the client to use, how to
+ * behave when the SaaS is unreachable and which events to forward.
+ */
+public class RealmRoute {
+    private final String realmId;
+    private final SaasClient client;
+    private final int latencyBudgetMs;
+    private final boolean fallbackAllow;
+    private final Set<EventType> forwardedEvents;
+    private final Map<String, String> sourceConfig;
+
+    RealmRoute(String realmId, SaasClient client, int latencyBudgetMs, boolean fallbackAllow, 
+               EnumSet<EventType> forwardedEvents, Map<String, String> sourceConfig) {
+        this.realmId = realmId;
+        this.client = client;
+        this.latencyBudgetMs = latencyBudgetMs;
+        this.fallbackAllow = fallbackAllow;
+        this.forwardedEvents = Collections.unmodifiableSet(EnumSet.copyOf(forwardedEvents));
+        this.sourceConfig = sourceConfig;
+    }
+
+    /**
+     * Realm the route was compiled for, or null for the shared default route.
+     */
+    public String getRealmId() {
+        return realmId;
+    }
+
+    public SaasClient getClient() {
+        return client;
+    }
+
+    public int getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+
+    public boolean isFallbackAllow() {
+        return fallbackAllow;
+    }
+
+    public boolean forwards(EventType type) {
+        return forwardedEvents.contains(type);
+    }
+
+    /**
+     * True when this route was compiled from exactly {@code config}
+     * (null meaning the realm has no authenticator config).
+     */
+    boolean compiledFrom(Map<String, String> config) {
+        return sourceConfig == null ? config == null : sourceConfig.equals(config);
+    }
+}
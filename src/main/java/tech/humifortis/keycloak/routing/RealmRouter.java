@@ -0,0 +1,451 @@
+package tech.humifortis.keycloak.routing;
+
+import org.jboss.logging.Logger;
+import org.keycloak.events.EventType;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+import tech.humifortis.keycloak.auth.HumifortisRBAAuthenticatorFactory;
+import tech.humifortis.keycloak.client.SaasClient;
+import tech.humifortis.keycloak.client.SaasConfig;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Per-realm routing table.
+ *
+ * Realms whose RBA execution has an authenticator config get their own
+ * {@link RealmRoute}; every other realm uses the route built from the
+ * environment. Logins are routed by the config of the execution that runs
+ * them, since a realm can have several RBA executions; events, which carry
+ * only a realm, use the realm's first RBA config. Both tables are immutable
+ * maps replaced copy-on-write, so the per-event and per-login lookup is a
+ * single lock-free hash lookup. Login routes are checked against the
+ * execution's config on every login; event routes are rechecked against the
+ * realm's config every {@link #EVENT_ROUTE_RECHECK_MS}.
+ *
+ * Clients no route uses any more are closed only after a grace delay, since
+ * a login or event that read the old route may still be using its client.
+ */
+public class RealmRouter {
+    private static final Logger logger = Logger.getLogger(RealmRouter.class);
+
+    public static final String LATENCY_BUDGET_MS = "latencyBudgetMs";
+    public static final String FALLBACK_MODE = "fallbackMode";
+    public static final String FORWARDED_EVENTS = "forwardedEvents";
+    public static final String TENANT_KEY = "tenantKey";
+
+    private static final String FALLBACK_ALLOW = "allow";
+    private static final String FALLBACK_BLOCK = "block";
+
+    // Events we care about for security monitoring
+    private static final EnumSet<EventType> DEFAULT_EVENTS = EnumSet.of(
+            EventType.LOGIN,
+            EventType.LOGIN_ERROR,
+            EventType.LOGOUT,
+            EventType.REGISTER,
+            EventType.UPDATE_PASSWORD,
+            EventType.UPDATE_EMAIL,
+            EventType.RESET_PASSWORD,
+            EventType.RESET_PASSWORD_ERROR,
+            EventType.CODE_TO_TOKEN_ERROR,
+            EventType.REFRESH_TOKEN_ERROR,
+            EventType.REMOVE_TOTP,
+            EventType.UPDATE_TOTP
+    );
+
+    private static final long EVENT_ROUTE_RECHECK_MS = 30_000;
+    private static final long RETIRED_CLIENT_GRACE_MS = 30_000;
+
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private static volatile RealmRouter shared;
+    private static volatile long nextAttemptNanos;
+    private static volatile RuntimeException lastFailure;
+    private static long retryDelayMs = INITIAL_RETRY_DELAY_MS;
+    private static Supplier<SaasConfig> configSource = SaasConfig::new;
+
+    private final SaasConfig baseConfig;
+    private final long eventRouteRecheckNanos;
+    private final long retiredClientGraceMs;
+    private final RealmRoute defaultRoute;
+    // Clients keyed by tenant key and budget so recompiling a realm reuses its connection pool.
+    // Guarded by this; clients no route uses any more move to retired when routes change.
+    private final Map<String, SaasClient> clients = new HashMap<>();
+    // Unused clients waiting out the grace delay before being closed, by the same key. Guarded by this.
+    private final Map<String, SaasClient> retired = new HashMap<>();
+    // Event routes by realm ID
+    private volatile Map<String, EventRoute> table = Map.of();
+    // Login routes by authenticator config ID
+    private volatile Map<String, RealmRoute> loginTable = Map.of();
+
+    public RealmRouter(SaasConfig baseConfig) {
+        this(baseConfig, EVENT_ROUTE_RECHECK_MS, RETIRED_CLIENT_GRACE_MS);
+    }
+
+    // Tests shorten the recheck interval and the grace delay
+    RealmRouter(SaasConfig baseConfig, long eventRouteRecheckMs, long retiredClientGraceMs) {
+        this.baseConfig = baseConfig;
+        this.eventRouteRecheckNanos = TimeUnit.MILLISECONDS.toNanos(eventRouteRecheckMs);
+        this.retiredClientGraceMs = retiredClientGraceMs;
+        SaasClient defaultClient = new SaasClient(baseConfig);
+        clients.put(clientKey(baseConfig.getApiKey(), baseConfig.getTimeoutMs()), defaultClient);
+        this.defaultRoute = new RealmRoute(null, defaultClient, baseConfig.getTimeoutMs(), 
+                baseConfig.isFallbackAllow(), DEFAULT_EVENTS, null);
+    }
+
+    /**
+     * Router built from the environment and shared by the authenticator and
+     * the event listener. Once built this is a single volatile read. If the
+     * environment is invalid, callers get the last failure until the retry
+     * backoff (doubling up to a minute) has elapsed, so a broken config is not
+     * re-read on every login or event.
+     */
+    public static RealmRouter getShared() {
+        RealmRouter router = shared;
+        if (router != null) {
+            return router;
+        }
+        RuntimeException failure = lastFailure;
+        if (failure != null && System.nanoTime() - nextAttemptNanos < 0) {
+            throw new IllegalStateException("Humifortis configuration unavailable, retry pending", failure);
+        }
+        return initShared();
+    }
+
+    private static synchronized RealmRouter initShared() {
+        if (shared != null) {
+            return shared;
+        }
+        if (lastFailure != null && System.nanoTime() - nextAttemptNanos < 0) {
+            throw new IllegalStateException("Humifortis configuration unavailable, retry pending", lastFailure);
+        }
+        try {
+            shared = new RealmRouter(configSource.get());
+            lastFailure = null;
+            retryDelayMs = INITIAL_RETRY_DELAY_MS;
+            return shared;
+        } catch (RuntimeException e) {
+            nextAttemptNanos = System.nanoTime() + retryDelayMs * 1_000_000L;
+            lastFailure = e;
+            logger.warnf("Humifortis configuration failed, next attempt in %d ms: %s", retryDelayMs, e.getMessage());
+            retryDelayMs = Math.min(MAX_RETRY_DELAY_MS, retryDelayMs * 2);
+            throw e;
+        }
+    }
+
+    /**
+     * Test hook: forgets the shared router and any pending retry, and builds
+     * the next one from {@code source} instead of the environment.
+     */
+    static synchronized void resetShared(Supplier<SaasConfig> source) {
+        if (shared != null) {
+            shared.close();
+        }
+        shared = null;
+        lastFailure = null;
+        nextAttemptNanos = 0;
+        retryDelayMs = INITIAL_RETRY_DELAY_MS;
+        configSource = source;
+    }
+
+    public static List<ProviderConfigProperty> configProperties() {
+        return ProviderConfigurationBuilder.create()
+                .property()
+                    .name(LATENCY_BUDGET_MS)
+                    .label("Latency budget (ms)")
+                    .helpText("Timeout for SaaS calls from this realm. Defaults to HUMIFORTIS_TIMEOUT_MS.")
+                    .type(ProviderConfigProperty.STRING_TYPE)
+                    .add()
+                .property()
+                    .name(FALLBACK_MODE)
+                    .label("Fallback mode")
+                    .helpText("Whether logins are allowed or blocked when the SaaS cannot be reached. "
+                            + "Defaults to HUMIFORTIS_FALLBACK_ALLOW.")
+                    .type(ProviderConfigProperty.LIST_TYPE)
+                    .options(FALLBACK_ALLOW, FALLBACK_BLOCK)
+                    .add()
+                .property()
+                    .name(FORWARDED_EVENTS)
+                    .label("Forwarded events")
+                    .helpText("Keycloak event types sent to Humifortis for this realm. "
+                            + "Defaults to the standard security event set.")
+                    .type(ProviderConfigProperty.MULTIVALUED_LIST_TYPE)
+                    .options(Arrays.stream(EventType.values()).map(Enum::name).collect(Collectors.toList()))
+                    .add()
+                .property()
+                    .name(TENANT_KEY)
+                    .label("Tenant API key")
+                    .helpText("Humifortis API key for this realm. Defaults to HUMIFORTIS_API_KEY.")
+                    .type(ProviderConfigProperty.PASSWORD)
+                    .secret(true)
+                    .add()
+                .build();
+    }
+
+    public RealmRoute route(String realmId) {
+        EventRoute cached = table.get(realmId);
+        return cached != null ? cached.route : defaultRoute;
+    }
+
+    /**
+     * Route for a login through the execution configured by {@code configModel},
+     * recompiled if that config changed since it was last seen. Executions
+     * without a config use the environment defaults.
+     */
+    public RealmRoute route(String realmId, AuthenticatorConfigModel configModel) {
+        Map<String, String> config = configModel != null ? configModel.getConfig() : null;
+        if (config == null) {
+            return defaultRoute;
+        }
+        String configId = configModel.getId();
+        RealmRoute route = configId != null ? loginTable.get(configId) : null;
+        if (route != null && route.compiledFrom(config)) {
+            return route;
+        }
+        synchronized (this) {
+            route = configId != null ? loginTable.get(configId) : null;
+            if (route != null && route.compiledFrom(config)) {
+                return route;
+            }
+            route = compile(realmId, config);
+            if (configId != null) {
+                Map<String, RealmRoute> next = new HashMap<>(loginTable);
+                next.put(configId, route);
+                loginTable = Map.copyOf(next);
+                closeUnusedClients();
+            }
+        }
+        logger.debugf("Compiled Humifortis login route for realm %s, config %s", realmId, configId);
+        return route;
+    }
+
+    /**
+     * Route for an event. The realm's RBA execution config is resolved on
+     * first use and again once the cached route is older than the recheck
+     * interval; an unchanged config keeps the route and its client.
+     */
+    public RealmRoute route(KeycloakSession session, String realmId) {
+        EventRoute cached = table.get(realmId);
+        long now = System.nanoTime();
+        if (cached != null && now - cached.recheckAtNanos < 0) {
+            return cached.route;
+        }
+        Map<String, String> config;
+        try {
+            RealmModel realm = realmId != null && session != null ? session.realms().getRealm(realmId) : null;
+            config = realm != null ? findAuthenticatorConfig(realm) : null;
+        } catch (RuntimeException e) {
+            logger.warnf("Could not resolve Humifortis config for realm %s, using %s: %s", 
+                    realmId, cached != null ? "the cached route" : "defaults", e.getMessage());
+            return cached != null ? cached.route : defaultRoute;
+        }
+        return install(realmId, config);
+    }
+
+    /**
+     * Drops the realm's event route and login routes so they are rebuilt from
+     * the current config on next use.
+     */
+    public void invalidate(String realmId) {
+        synchronized (this) {
+            Map<String, EventRoute> next = new HashMap<>(table);
+            next.remove(realmId);
+            table = Map.copyOf(next);
+            Map<String, RealmRoute> nextLogin = new HashMap<>(loginTable);
+            nextLogin.values().removeIf(route -> realmId != null && realmId.equals(route.getRealmId()));
+            loginTable = Map.copyOf(nextLogin);
+            closeUnusedClients();
+        }
+    }
+
+    /**
+     * Drops all routes and closes every client, including the default one and
+     * retired ones still in their grace delay, then waits up to the base
+     * timeout for buffered and queued events to be delivered.
+     */
+    public synchronized void close() {
+        table = Map.of();
+        loginTable = Map.of();
+        retired.forEach(clients::putIfAbsent);
+        retired.clear();
+        clients.values().forEach(SaasClient::close);
+        long deadline = System.nanoTime() + baseConfig.getTimeoutMs() * 1_000_000L;
+        try {
+            for (SaasClient client : clients.values()) {
+                long remainingMs = Math.max(0, (deadline - System.nanoTime()) / 1_000_000L);
+                if (!client.awaitClosed(remainingMs)) {
+                    logger.warn("Humifortis events still in flight at shutdown were not delivered");
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Closes the shared router, if one was built, delivering pending events.
+     * Called when Keycloak shuts the providers down.
+     */
+    public static synchronized void closeShared() {
+        RealmRouter router = shared;
+        shared = null;
+        if (router != null) {
+            router.close();
+            logger.info("Humifortis connector closed");
+        }
+    }
+
+    public SaasConfig getBaseConfig() {
+        return baseConfig;
+    }
+
+    public RealmRoute getDefaultRoute() {
+        return defaultRoute;
+    }
+
+    private RealmRoute install(String realmId, Map<String, String> config) {
+        if (realmId == null) {
+            return defaultRoute;
+        }
+        RealmRoute route;
+        synchronized (this) {
+            EventRoute cached = table.get(realmId);
+            boolean unchanged = cached != null && cached.route.compiledFrom(config);
+            route = unchanged ? cached.route : config == null ? defaultRoute : compile(realmId, config);
+            Map<String, EventRoute> next = new HashMap<>(table);
+            next.put(realmId, new EventRoute(route, System.nanoTime() + eventRouteRecheckNanos));
+            table = Map.copyOf(next);
+            if (unchanged) {
+                return route;
+            }
+            closeUnusedClients();
+        }
+        logger.debugf("Compiled Humifortis route for realm %s (custom config: %s)", realmId, config != null);
+        return route;
+    }
+
+    /**
+     * Retires clients that no installed route refers to any more, e.g. after
+     * a realm changed its tenant key or budget, and schedules their close
+     * after the grace delay. Called with the lock held.
+     */
+    private void closeUnusedClients() {
+        Set<SaasClient> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        used.add(defaultRoute.getClient());
+        table.values().forEach(cached -> used.add(cached.route.getClient()));
+        loginTable.values().forEach(route -> used.add(route.getClient()));
+        clients.entrySet().removeIf(entry -> {
+            if (used.contains(entry.getValue())) {
+                return false;
+            }
+            retired.put(entry.getKey(), entry.getValue());
+            CompletableFuture.runAsync(() -> closeRetired(entry.getKey(), entry.getValue()),
+                    CompletableFuture.delayedExecutor(retiredClientGraceMs, TimeUnit.MILLISECONDS));
+            return true;
+        });
+    }
+
+    private synchronized void closeRetired(String key, SaasClient client) {
+        // Not retired any more if a recompile took it back into use or the router was closed
+        if (retired.remove(key, client)) {
+            client.close();
+            logger.debug("Closed a Humifortis client no route uses any more");
+        }
+    }
+
+    /**
+     * Builds a route for {@code config}, reusing or creating its client.
+     * Called with the lock held.
+     */
+    private RealmRoute compile(String realmId, Map<String, String> config) {
+        int budget = baseConfig.getTimeoutMs();
+        String budgetValue = config.get(LATENCY_BUDGET_MS);
+        if (budgetValue != null && !budgetValue.isBlank()) {
+            try {
+                int parsed = Integer.parseInt(budgetValue.trim());
+                if (parsed > 0) {
+                    budget = parsed;
+                } else {
+                    logger.warnf("%s must be positive, got %d; using %d ms", LATENCY_BUDGET_MS, parsed, budget);
+                }
+            } catch (NumberFormatException e) {
+                logger.warnf("Invalid %s '%s', using %d ms", LATENCY_BUDGET_MS, budgetValue, budget);
+            }
+        }
+
+        String fallback = config.get(FALLBACK_MODE);
+        boolean fallbackAllow = fallback == null || fallback.isBlank() 
+                ? baseConfig.isFallbackAllow() 
+                : FALLBACK_ALLOW.equalsIgnoreCase(fallback);
+
+        EnumSet<EventType> events = DEFAULT_EVENTS;
+        String eventValue = config.get(FORWARDED_EVENTS);
+        if (eventValue != null && !eventValue.isBlank()) {
+            events = EnumSet.noneOf(EventType.class);
+            for (String name : Constants.CFG_DELIMITER_PATTERN.split(eventValue)) {
+                try {
+                    events.add(EventType.valueOf(name.trim()));
+                } catch (IllegalArgumentException e) {
+                    logger.warnf("Ignoring unknown event type in %s: %s", FORWARDED_EVENTS, name);
+                }
+            }
+        }
+
+        String tenantKey = config.get(TENANT_KEY);
+        String apiKey = tenantKey != null && !tenantKey.isBlank() ? tenantKey : baseConfig.getApiKey();
+        int clientBudget = budget;
+        // A client retired moments ago is taken back rather than replaced
+        SaasClient client = clients.computeIfAbsent(clientKey(apiKey, budget), key -> {
+            SaasClient previous = retired.remove(key);
+            return previous != null 
+                    ? previous 
+                    : new SaasClient(baseConfig.withOverrides(apiKey, clientBudget, fallbackAllow));
+        });
+
+        return new RealmRoute(realmId, client, budget, fallbackAllow, events, new HashMap<>(config));
+    }
+
+    private static Map<String, String> findAuthenticatorConfig(RealmModel realm) {
+        return realm.getAuthenticationFlowsStream()
+                .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
+                .filter(execution -> HumifortisRBAAuthenticatorFactory.PROVIDER_ID.equals(execution.getAuthenticator()))
+                .filter(execution -> execution.getAuthenticatorConfig() != null)
+                .map(execution -> realm.getAuthenticatorConfigById(execution.getAuthenticatorConfig()))
+                .filter(model -> model != null && model.getConfig() != null)
+                .map(AuthenticatorConfigModel::getConfig)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static String clientKey(String apiKey, int timeoutMs) {
+        return timeoutMs + ":" + apiKey;
+    }
+
+    private static final class EventRoute {
+        private final RealmRoute route;
+        private final long recheckAtNanos;
+
+        EventRoute(RealmRoute route, long recheckAtNanos) {
+            this.route = route;
+            this.recheckAtNanos = recheckAtNanos;
+        }
+    }
+}
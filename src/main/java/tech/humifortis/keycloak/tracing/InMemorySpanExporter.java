@@ -0,0 +1,48 @@
+package tech.humifortis.keycloak.tracing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent sampled traces in memory for inspection offline.
+ *
+ * HUMIFORTIS_TRACE_EXPORTER=memory selects the process-wide instance from
+ * {@link #getShared()}, which is where code in the same JVM (tests, the
+ * replay harness, a debugger) reads the traces back.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+    private static final int DEFAULT_CAPACITY = 100;
+    private static final InMemorySpanExporter SHARED = new InMemorySpanExporter();
+
+    private final int capacity;
+    private final ArrayDeque<LoginTrace> traces = new ArrayDeque<>();
+
+    public InMemorySpanExporter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InMemorySpanExporter(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static InMemorySpanExporter getShared() {
+        return SHARED;
+    }
+
+    @Override
+    public synchronized void export(LoginTrace trace) {
+        if (traces.size() >= capacity) {
+            traces.pollFirst();
+        }
+        traces.addLast(trace);
+    }
+
+    public synchronized List<LoginTrace> getTraces() {
+        return new ArrayList<>(traces);
+    }
+
+    public synchronized void clear() {
+        traces.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package tech.humifortis.keycloak.tracing;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Writes one log line per sampled login with the duration of every span.
+ */
+public class LogSpanExporter implements SpanExporter {
+    private static final Logger logger = Logger.getLogger(LogSpanExporter.class);
+
+    @Override
+    public void export(LoginTrace trace) {
+        StringBuilder line = new StringBuilder(128)
+                .append("trace=").append(trace.getTraceId())
+                .append(' ').append(trace.getRoot().getName()).append('=')
+                .append(millis(trace.getRoot().getDurationNanos())).append("ms");
+        for (Span span : trace.getSpans()) {
+            line.append(' ').append(span.getName()).append('=').append(millis(span.getDurationNanos())).append("ms");
+            if (span.getError() != null) {
+                line.append("(error: ").append(span.getError()).append(')');
+            }
+        }
+        logger.info(line);
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "?" : String.format("%.2f", nanos / 1_000_000.0);
+    }
+}
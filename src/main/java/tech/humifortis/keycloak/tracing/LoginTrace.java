@@ -0,0 +1,75 @@
+package tech.humifortis.keycloak.tracing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spans recorded for a single authentication. Not thread-safe: a trace belongs
+ * to the request thread that started it.
+ */
+public class LoginTrace {
+    private final String traceId;
+    private final boolean sampled;
+    private final SpanExporter exporter;
+    private final Span root;
+    private final List<Span> spans;
+
+    LoginTrace(String rootName, boolean sampled, SpanExporter exporter) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.traceId = toHex(random.nextLong()) + toHex(random.nextLong());
+        this.sampled = sampled;
+        this.exporter = exporter;
+        this.root = new Span(rootName, toHex(random.nextLong()), null, sampled);
+        this.spans = sampled ? new ArrayList<>(8) : Collections.emptyList();
+    }
+
+    /**
+     * Starts a child of the root span. Unsampled traces hand back the root
+     * itself, so callers start and end spans the same way at no cost.
+     */
+    public Span span(String name) {
+        if (!sampled) {
+            return root;
+        }
+        Span span = new Span(name, toHex(ThreadLocalRandom.current().nextLong()), root.getSpanId(), true);
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * W3C trace context header naming {@code parent} as the caller's span.
+     */
+    public String traceparent(Span parent) {
+        return "00-" + traceId + "-" + parent.getSpanId() + (sampled ? "-01" : "-00");
+    }
+
+    public void end() {
+        root.end();
+        if (sampled && exporter != null) {
+            exporter.export(this);
+        }
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public Span getRoot() {
+        return root;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
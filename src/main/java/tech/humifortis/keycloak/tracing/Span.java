@@ -0,0 +1,53 @@
+package tech.humifortis.keycloak.tracing;
+
+/**
+ * A timed section of a {@link LoginTrace}. Spans of an unsampled trace only
+ * carry IDs for {@code traceparent} propagation and never read the clock.
+ */
+public class Span {
+    private final String name;
+    private final String spanId;
+    private final String parentSpanId;
+    private final boolean timed;
+    private final long startNanos;
+    private long durationNanos = -1;
+    private String error;
+
+    Span(String name, String spanId, String parentSpanId, boolean timed) {
+        this.name = name;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.timed = timed;
+        this.startNanos = timed ? System.nanoTime() : 0;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public void end() {
+        if (timed && durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
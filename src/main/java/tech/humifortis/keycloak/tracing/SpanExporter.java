@@ -0,0 +1,10 @@
+package tech.humifortis.keycloak.tracing;
+
+/**
+ * Receives sampled login traces once they end. Implementations are called on
+ * the login thread and must not block; an OpenTelemetry bridge can be plugged
+ * in by naming its class in {@code HUMIFORTIS_TRACE_EXPORTER}.
+ */
+public interface SpanExporter {
+    void export(LoginTrace trace);
+}
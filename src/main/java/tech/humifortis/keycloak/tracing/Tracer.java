@@ -0,0 +1,52 @@
+package tech.humifortis.keycloak.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts login traces and decides up front whether they are sampled.
+ */
+public class Tracer {
+    private static final Logger logger = Logger.getLogger(Tracer.class);
+
+    private final double sampleRate;
+    private final SpanExporter exporter;
+
+    public Tracer(double sampleRate, SpanExporter exporter) {
+        this.sampleRate = exporter != null ? sampleRate : 0;
+        this.exporter = exporter;
+    }
+
+    public LoginTrace startTrace(String name) {
+        boolean sampled = sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+        return new LoginTrace(name, sampled, exporter);
+    }
+
+    public SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * Resolves {@code log}, {@code memory}, {@code none} or the class name of a
+     * {@link SpanExporter} with a public no-arg constructor. {@code memory}
+     * always returns {@link InMemorySpanExporter#getShared()}.
+     */
+    public static SpanExporter createExporter(String name) {
+        switch (name) {
+            case "none":
+                return null;
+            case "log":
+                return new LogSpanExporter();
+            case "memory":
+                return InMemorySpanExporter.getShared();
+            default:
+                try {
+                    return (SpanExporter) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    logger.warnf("Cannot load span exporter '%s', tracing disabled: %s", name, e.getMessage());
+                    return null;
+                }
+        }
+    }
+}
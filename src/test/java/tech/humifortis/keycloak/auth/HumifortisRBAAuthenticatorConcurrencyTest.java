@@ -0,0 +1,224 @@
+package tech.humifortis.keycloak.auth;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import tech.humifortis.keycloak.client.SaasConfig;
+import tech.humifortis.keycloak.routing.RealmRouter;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Drives {@code authenticate} from many threads while the router first fails
+ * to build and then recovers, checking that every login gets exactly one
+ * outcome and that all threads end up sharing one set of services.
+ */
+class HumifortisRBAAuthenticatorConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int LOGINS_PER_THREAD = 200;
+
+    private HttpServer saas;
+    private ExecutorService pool;
+
+    @BeforeEach
+    void startSaas() throws Exception {
+        // Unknown entities get 404, which the client maps to ALLOW
+        saas = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        saas.setExecutor(Executors.newFixedThreadPool(THREADS));
+        saas.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.sendResponseHeaders(404, -1);
+            }
+        });
+        saas.start();
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void stopSaas() {
+        pool.shutdownNow();
+        saas.stop(0);
+        ((ExecutorService) saas.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    void loginsFallBackWhileConfigFailsAndShareServicesOnceItRecovers() throws Exception {
+        AtomicReference<RealmRouter> available = new AtomicReference<>();
+        AtomicInteger routerLookups = new AtomicInteger();
+        HumifortisRBAAuthenticator authenticator = new HumifortisRBAAuthenticator(() -> {
+            routerLookups.incrementAndGet();
+            RealmRouter router = available.get();
+            if (router == null) {
+                throw new IllegalStateException("Humifortis configuration unavailable, retry pending");
+            }
+            return router;
+        });
+
+        List<String> broken = hammer(authenticator, null);
+        assertEquals(THREADS * LOGINS_PER_THREAD, broken.size());
+        assertEquals(List.of("failure:ACCESS_DENIED"), distinct(broken));
+
+        Map<String, String> env = Map.of(
+                "HUMIFORTIS_API_URL", "http://127.0.0.1:" + saas.getAddress().getPort(),
+                "HUMIFORTIS_API_KEY", "test-key",
+                "HUMIFORTIS_TIMEOUT_MS", "2000",
+                "HUMIFORTIS_TRACE_SAMPLE_RATE", "1",
+                "HUMIFORTIS_TRACE_EXPORTER", "memory",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0");
+        available.set(new RealmRouter(new SaasConfig(env::get)));
+
+        Set<Object> services = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+        List<String> recovered = hammer(authenticator, services);
+        assertEquals(THREADS * LOGINS_PER_THREAD, recovered.size());
+        assertEquals(List.of("success"), distinct(recovered));
+        assertEquals(1, services.size());
+
+        // Once published, logins no longer go back to the router source
+        int lookups = routerLookups.get();
+        FakeContext context = new FakeContext("after", null);
+        authenticator.authenticate(context.proxy());
+        assertEquals("success", context.outcome.get());
+        assertEquals(lookups, routerLookups.get());
+    }
+
+    private List<String> hammer(HumifortisRBAAuthenticator authenticator, Set<Object> services) throws Exception {
+        AuthenticatorConfigModel strict = configModel("cfg-strict", "block");
+        AuthenticatorConfigModel lenient = configModel("cfg-lenient", "allow");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                List<String> outcomes = new ArrayList<>();
+                for (int i = 0; i < LOGINS_PER_THREAD; i++) {
+                    AuthenticatorConfigModel config = i % 3 == 0 ? null : (i % 3 == 1 ? strict : lenient);
+                    FakeContext context = new FakeContext("user-" + thread + "-" + i, config);
+                    authenticator.authenticate(context.proxy());
+                    outcomes.add(context.outcome.get());
+                    if (services != null) {
+                        services.add(authenticator.initialize());
+                    }
+                }
+                return outcomes;
+            }));
+        }
+        start.countDown();
+        List<String> all = new ArrayList<>();
+        for (Future<List<String>> future : futures) {
+            all.addAll(future.get(60, TimeUnit.SECONDS));
+        }
+        return all;
+    }
+
+    private static List<String> distinct(List<String> outcomes) {
+        return outcomes.stream().distinct().sorted().toList();
+    }
+
+    private static AuthenticatorConfigModel configModel(String id, String fallbackMode) {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setId(id);
+        model.setAlias(id);
+        model.setConfig(Map.of(RealmRouter.FALLBACK_MODE, fallbackMode));
+        return model;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (target, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "equals":
+                    return target == args[0];
+                default:
+                    return handler.invoke(target, method, args);
+            }
+        });
+    }
+
+    /**
+     * Minimal flow context recording the single outcome the authenticator chose.
+     */
+    private static final class FakeContext {
+        private final AtomicReference<String> outcome = new AtomicReference<>();
+        private final String username;
+        private final AuthenticatorConfigModel config;
+
+        FakeContext(String username, AuthenticatorConfigModel config) {
+            this.username = username;
+            this.config = config;
+        }
+
+        AuthenticationFlowContext proxy() {
+            RealmModel realm = HumifortisRBAAuthenticatorConcurrencyTest.proxy(RealmModel.class, (p, method, args) -> {
+                switch (method.getName()) {
+                    case "getId":
+                    case "getName":
+                        return "realm-1";
+                    default:
+                        return null;
+                }
+            });
+            UserModel user = HumifortisRBAAuthenticatorConcurrencyTest.proxy(UserModel.class, 
+                    (p, method, args) -> "getUsername".equals(method.getName()) ? username : null);
+            LoginFormsProvider form = HumifortisRBAAuthenticatorConcurrencyTest.proxy(LoginFormsProvider.class,
+                    (p, method, args) -> method.getReturnType() == LoginFormsProvider.class ? p : null);
+
+            return HumifortisRBAAuthenticatorConcurrencyTest.proxy(AuthenticationFlowContext.class, 
+                    (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "getRealm":
+                                return realm;
+                            case "getUser":
+                                return user;
+                            case "getAuthenticatorConfig":
+                                return config;
+                            case "form":
+                                return form;
+                            case "success":
+                            case "attempted":
+                                record(method.getName());
+                                return null;
+                            case "failure":
+                                record("failure:" + (AuthenticationFlowError) args[0]);
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        private void record(String value) {
+            if (!outcome.compareAndSet(null, value)) {
+                throw new AssertionError("Second outcome " + value + " after " + outcome.get());
+            }
+        }
+    }
+}
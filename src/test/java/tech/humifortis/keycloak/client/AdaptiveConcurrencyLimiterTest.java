@@ -0,0 +1,83 @@
+package tech.humifortis.keycloak.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void runsWorkOnDedicatedThreads() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, 10, 1000);
+        AtomicReference<String> threadName = new AtomicReference<>();
+
+        limiter.submit(() -> {
+            threadName.set(Thread.currentThread().getName());
+            return true;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(threadName.get().startsWith("humifortis-events-"), threadName.get());
+        assertEquals(1, limiter.getCompletedCount());
+        limiter.close();
+    }
+
+    @Test
+    void queuesBeyondLimitAndShedsBeyondQueue() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, 10_000);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> running = limiter.submit(() -> await(release));
+        CompletableFuture<Void> queued = limiter.submit(() -> true);
+        CompletableFuture<Void> shed = limiter.submit(() -> true);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> shed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1, limiter.getQueued());
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getShedCount());
+        assertEquals(2, limiter.getCompletedCount());
+        limiter.close();
+    }
+
+    @Test
+    void backsOffOnFailureAndRejectsAfterClose() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 10, 10_000);
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(limiter.submit(() -> false));
+        }
+        for (CompletableFuture<Void> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        assertTrue(limiter.getLimit() < 10, "limit should shrink after overload signals: " + limiter);
+
+        limiter.close();
+        CompletableFuture<Void> late = limiter.submit(() -> true);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package tech.humifortis.keycloak.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rough comparison of the binary codec against the Gson path the client uses
+ * for JSON batches. Timings are printed, not asserted; only the size win is.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class BinaryEventCodecBenchmarkTest {
+    private static final int BATCH_SIZE = 50;
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 5_000;
+
+    @Test
+    void binaryIsSmallerThanJsonAndReportsTimings() {
+        List<HumifortisEvent> batch = BinaryEventCodecTest.randomBatch(new Random(3), BATCH_SIZE);
+        BinaryEventCodec codec = new BinaryEventCodec();
+        Gson gson = new Gson();
+        Type listType = new TypeToken<List<HumifortisEvent>>() { }.getType();
+
+        byte[] binary = codec.encode(batch);
+        byte[] json = toJson(gson, batch);
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += codec.encode(batch).length + toJson(gson, batch).length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.encode(batch).length;
+        }
+        long binaryEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += toJson(gson, batch).length;
+        }
+        long jsonEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.decode(binary).size();
+        }
+        long binaryDecode = System.nanoTime() - start;
+
+        String jsonEvents = gson.toJsonTree(batch).toString();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<HumifortisEvent> decoded = gson.fromJson(jsonEvents, listType);
+            sink += decoded.size();
+        }
+        long jsonDecode = System.nanoTime() - start;
+
+        System.out.printf("Batch of %d events: binary %d bytes, JSON %d bytes%n", BATCH_SIZE, binary.length, json.length);
+        System.out.printf("  encode: binary %.1f us/batch, Gson %.1f us/batch%n",
+                binaryEncode / 1e3 / ITERATIONS, jsonEncode / 1e3 / ITERATIONS);
+        System.out.printf("  decode: binary %.1f us/batch, Gson %.1f us/batch (sink %d)%n",
+                binaryDecode / 1e3 / ITERATIONS, jsonDecode / 1e3 / ITERATIONS, sink);
+
+        assertTrue(binary.length * 2 < json.length, "binary batch should be well under half the JSON size");
+    }
+
+    private static byte[] toJson(Gson gson, List<HumifortisEvent> batch) {
+        JsonObject payload = new JsonObject();
+        payload.add("events", gson.toJsonTree(batch));
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
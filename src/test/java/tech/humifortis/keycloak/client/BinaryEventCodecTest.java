@@ -0,0 +1,146 @@
+package tech.humifortis.keycloak.client;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class BinaryEventCodecTest {
+    private static final String[] EVENT_TYPES = {"auth_login_success", "auth_login_failed", "auth_logout", "auth_register"};
+    private static final String[] REALMS = {"master", "customers", "staff"};
+
+    private final BinaryEventCodec codec = new BinaryEventCodec();
+    private final Gson gson = new Gson();
+
+    @Test
+    void roundTripsTypicalBatch() {
+        List<HumifortisEvent> events = randomBatch(new Random(1), 200);
+
+        List<HumifortisEvent> decoded = codec.decode(codec.encode(events));
+
+        assertEquals(gson.toJsonTree(events), gson.toJsonTree(decoded));
+    }
+
+    @Test
+    void roundTripsEmptyBatchAndMissingFields() {
+        assertEquals(0, codec.decode(codec.encode(List.of())).size());
+
+        HumifortisEvent bare = new HumifortisEvent();
+        bare.setMetadata(null);
+        HumifortisEvent odd = new HumifortisEvent();
+        odd.setTimestamp("not-a-timestamp");
+        odd.addMetadata("nothing", null);
+        odd.addMetadata("unicode", "üñîçødé ✓");
+
+        List<HumifortisEvent> decoded = codec.decode(codec.encode(List.of(bare, odd)));
+
+        assertEquals(0, decoded.get(0).getMetadata().size());
+        assertEquals("not-a-timestamp", decoded.get(1).getTimestamp());
+        assertEquals("üñîçødé ✓", decoded.get(1).getMetadata().get("unicode"));
+        assertTrue(decoded.get(1).getMetadata().containsKey("nothing"));
+    }
+
+    @Test
+    void fuzzRoundTrip() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            List<HumifortisEvent> events = randomBatch(random, random.nextInt(40));
+            List<HumifortisEvent> decoded = codec.decode(codec.encode(events));
+            assertEquals(gson.toJsonTree(events), gson.toJsonTree(decoded), "iteration " + i);
+        }
+    }
+
+    @Test
+    void fuzzCorruptedInputOnlyThrowsIllegalArgument() {
+        Random random = new Random(7);
+        byte[] valid = codec.encode(randomBatch(random, 30));
+        for (int i = 0; i < 20_000; i++) {
+            byte[] corrupted;
+            if (random.nextInt(4) == 0) {
+                corrupted = Arrays.copyOf(valid, random.nextInt(valid.length));
+            } else {
+                corrupted = valid.clone();
+                int flips = 1 + random.nextInt(4);
+                for (int f = 0; f < flips; f++) {
+                    // Leave the header intact most of the time so the fuzzer reaches the body
+                    int position = 5 + random.nextInt(corrupted.length - 5);
+                    corrupted[position] = (byte) random.nextInt(256);
+                }
+            }
+            try {
+                codec.decode(corrupted);
+            } catch (IllegalArgumentException expected) {
+                // Malformed input must be reported this way and nothing else
+            } catch (RuntimeException e) {
+                fail("decode threw " + e + " for iteration " + i, e);
+            }
+        }
+    }
+
+    @Test
+    void rejectsOutOfRangeTimestamp() {
+        HumifortisEvent event = new HumifortisEvent();
+        event.setTimestamp(Instant.ofEpochSecond(1_700_000_000L).toString());
+        byte[] data = codec.encode(List.of(event));
+        // Layout: header(5) table(1, empty) count(1) presence(1) seconds-delta varint ...
+        int nanosIndex = data.length - 2;
+        data[nanosIndex] = (byte) 0xFF;
+        byte[] patched = new byte[data.length + 4];
+        System.arraycopy(data, 0, patched, 0, nanosIndex + 1);
+        patched[nanosIndex + 1] = (byte) 0xFF;
+        patched[nanosIndex + 2] = (byte) 0xFF;
+        patched[nanosIndex + 3] = (byte) 0xFF;
+        patched[nanosIndex + 4] = (byte) 0x0F;
+        patched[nanosIndex + 5] = 0;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(patched));
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] data = codec.encode(List.of());
+        data[4] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(data));
+    }
+
+    static List<HumifortisEvent> randomBatch(Random random, int size) {
+        List<HumifortisEvent> events = new ArrayList<>(size);
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            time += random.nextInt(5_000);
+            String realm = REALMS[random.nextInt(REALMS.length)];
+            HumifortisEvent event = new HumifortisEvent();
+            event.setEntityId("user:keycloak:" + realm + ":" + "user" + random.nextInt(500));
+            event.setEntityType("user");
+            event.setEventType(EVENT_TYPES[random.nextInt(EVENT_TYPES.length)]);
+            event.setSource("keycloak");
+            event.setTimestamp(random.nextInt(10) == 0
+                    ? Instant.now().toString()
+                    : Instant.ofEpochMilli(time).toString());
+            event.addMetadata("realm", realm);
+            event.addMetadata("client_id", "app-" + random.nextInt(5));
+            event.addMetadata("ip", "10.0." + random.nextInt(256) + "." + random.nextInt(256));
+            if (random.nextBoolean()) {
+                event.addMetadata("risk_score", random.nextInt(101));
+            }
+            if (random.nextInt(5) == 0) {
+                event.addMetadata("weight", random.nextDouble());
+                event.addMetadata("flag", random.nextBoolean());
+                event.addMetadata("counter", random.nextLong());
+            }
+            events.add(event);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,297 @@
+package tech.humifortis.keycloak.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.RiskDecision;
+import tech.humifortis.keycloak.tracing.InMemorySpanExporter;
+import tech.humifortis.keycloak.tracing.LoginTrace;
+import tech.humifortis.keycloak.tracing.Span;
+import tech.humifortis.keycloak.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecisionCacheTest {
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void stopRefreshes() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private static RiskDecision decision(RiskDecision.Action action, int ttlSeconds) {
+        RiskDecision decision = new RiskDecision();
+        decision.setAction(action);
+        decision.setTtlSeconds(ttlSeconds);
+        return decision;
+    }
+
+    private DecisionCache cache(long graceMs, int maxEntries, DecisionCache.Loader refresher) {
+        return new DecisionCache(graceMs, maxEntries, refresher, refreshExecutor, clock::get);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS), "timed out waiting for latch");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Runs a no-op through the single refresh thread so earlier refreshes have completed. */
+    private void drainRefreshes() throws Exception {
+        refreshExecutor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void servesFreshDecisionWithoutLoading() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        DecisionCache cache = cache(1000, 10, id -> decision(RiskDecision.Action.ALLOW, 60));
+        DecisionCache.Loader loader = id -> {
+            loads.incrementAndGet();
+            return decision(RiskDecision.Action.ALLOW, 60);
+        };
+
+        RiskDecision first = cache.get("alice", loader);
+        assertSame(first, cache.get("alice", loader));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getFreshHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void expiredAllowAndMfaAreServedImmediatelyWithinGrace() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DecisionCache cache = cache(60_000, 10, id -> {
+            await(release);
+            return decision(RiskDecision.Action.ALLOW, 60);
+        });
+        RiskDecision allow = decision(RiskDecision.Action.ALLOW, 1);
+        RiskDecision mfa = decision(RiskDecision.Action.CHALLENGE_MFA, 1);
+        cache.get("alice", id -> allow);
+        cache.get("bob", id -> mfa);
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        // The refresher is held on the latch, so these only return because they do not wait for it
+        assertSame(allow, cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        }));
+        assertSame(mfa, cache.get("bob", id -> {
+            throw new AssertionError("stale CHALLENGE_MFA must not be fetched in line");
+        }));
+        assertEquals(2, cache.getStaleHits());
+        release.countDown();
+    }
+
+    @Test
+    void concurrentStaleHitsTriggerOneRefresh() throws Exception {
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger refreshes = new AtomicInteger();
+        DecisionCache cache = cache(60_000, 10, id -> {
+            refreshes.incrementAndGet();
+            refreshStarted.countDown();
+            await(release);
+            return decision(RiskDecision.Action.ALLOW, 60);
+        });
+        RiskDecision stale = decision(RiskDecision.Action.ALLOW, 1);
+        cache.get("alice", id -> stale);
+        clock.addAndGet(2 * SECOND_NANOS);
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<RiskDecision>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(callers.submit(() -> {
+                    await(start);
+                    return cache.get("alice", id -> {
+                        throw new AssertionError("stale ALLOW must not be fetched in line");
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<RiskDecision> result : results) {
+                assertSame(stale, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        await(refreshStarted);
+        release.countDown();
+        drainRefreshes();
+
+        assertEquals(1, refreshes.get());
+        assertEquals(1, cache.getRefreshes());
+        assertEquals(threads, cache.getStaleHits());
+    }
+
+    @Test
+    void refreshedDecisionReplacesTheEntry() throws Exception {
+        RiskDecision refreshed = decision(RiskDecision.Action.CHALLENGE_MFA, 60);
+        DecisionCache cache = cache(60_000, 10, id -> refreshed);
+        cache.get("alice", id -> decision(RiskDecision.Action.ALLOW, 1));
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        });
+        drainRefreshes();
+
+        assertSame(refreshed, cache.get("alice", id -> {
+            throw new AssertionError("refreshed decision should be fresh");
+        }));
+        assertEquals(1, cache.getFreshHits());
+    }
+
+    @Test
+    void failedRefreshServesStaleUntilGraceEnds() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        DecisionCache cache = cache(10_000, 10, id -> {
+            attempts.incrementAndGet();
+            throw new SaasException("unreachable");
+        });
+        RiskDecision stale = decision(RiskDecision.Action.ALLOW, 1);
+        cache.get("alice", id -> stale);
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        assertSame(stale, cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        }));
+        drainRefreshes();
+        assertEquals(1, cache.getRefreshFailures());
+
+        // Still within the grace period: served again, and the next refresh is allowed to run
+        clock.addAndGet(5 * SECOND_NANOS);
+        assertSame(stale, cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        }));
+        drainRefreshes();
+        assertEquals(2, attempts.get());
+
+        // Past staleUntil: a plain miss that loads in line
+        clock.addAndGet(10 * SECOND_NANOS);
+        RiskDecision loaded = decision(RiskDecision.Action.ALLOW, 60);
+        assertSame(loaded, cache.get("alice", id -> loaded));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void expiredBlockIsRefetchedInLine() throws Exception {
+        DecisionCache cache = cache(60_000, 10, id -> {
+            throw new AssertionError("BLOCK must not be refreshed in the background");
+        });
+        cache.get("mallory", id -> decision(RiskDecision.Action.BLOCK, 1));
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        RiskDecision allow = decision(RiskDecision.Action.ALLOW, 60);
+        assertSame(allow, cache.get("mallory", id -> allow));
+        assertSame(allow, cache.get("mallory", id -> {
+            throw new AssertionError("refetched decision should be cached");
+        }));
+        assertEquals(0, cache.getStaleHits());
+        assertEquals(0, cache.getRefreshes());
+    }
+
+    @Test
+    void expiredBlockIsKeptWhenRefetchFails() throws Exception {
+        DecisionCache cache = cache(60_000, 10, id -> {
+            throw new SaasException("unreachable");
+        });
+        RiskDecision block = decision(RiskDecision.Action.BLOCK, 1);
+        cache.get("mallory", id -> block);
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        RiskDecision served = cache.get("mallory", id -> {
+            throw new SaasException("unreachable");
+        });
+
+        assertSame(block, served);
+        assertEquals(1, cache.getStaleBlockHits());
+    }
+
+    @Test
+    void rejectedRefreshStillServesStaleAndRetries() throws Exception {
+        AtomicInteger submitted = new AtomicInteger();
+        DecisionCache cache = new DecisionCache(60_000, 10, id -> decision(RiskDecision.Action.ALLOW, 60),
+                task -> {
+                    if (submitted.incrementAndGet() == 1) {
+                        throw new RejectedExecutionException("full");
+                    }
+                    task.run();
+                }, clock::get);
+        RiskDecision stale = decision(RiskDecision.Action.ALLOW, 1);
+        cache.get("alice", id -> stale);
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        assertSame(stale, cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        }));
+        assertEquals(0, cache.getRefreshes());
+
+        assertSame(stale, cache.get("alice", id -> {
+            throw new AssertionError("stale ALLOW must not be fetched in line");
+        }));
+        assertEquals(1, cache.getRefreshes());
+        assertEquals(2, submitted.get());
+    }
+
+    @Test
+    void fullCacheSweepsExpiredEntriesBeforeCaching() throws Exception {
+        DecisionCache cache = cache(1, 2, id -> decision(RiskDecision.Action.ALLOW, 60));
+        cache.get("a", id -> decision(RiskDecision.Action.ALLOW, 1));
+        cache.get("b", id -> decision(RiskDecision.Action.ALLOW, 1));
+        assertEquals(2, cache.size());
+
+        clock.addAndGet(2 * SECOND_NANOS);
+        cache.get("c", id -> decision(RiskDecision.Action.ALLOW, 60));
+        assertEquals(1, cache.size());
+
+        // Full of fresh entries: the next miss is answered but not cached, and no sweep is due yet
+        cache.get("d", id -> decision(RiskDecision.Action.ALLOW, 60));
+        cache.get("e", id -> decision(RiskDecision.Action.ALLOW, 60));
+        assertEquals(2, cache.size());
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("e", id -> {
+            loads.incrementAndGet();
+            return decision(RiskDecision.Action.ALLOW, 60);
+        });
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void lookupSpanEndsBeforeTheFetch() throws Exception {
+        DecisionCache cache = cache(1000, 10, id -> decision(RiskDecision.Action.ALLOW, 60));
+        LoginTrace trace = new Tracer(1.0, new InMemorySpanExporter()).startTrace("rba.authenticate");
+        Span lookup = trace.span("cache.lookup");
+
+        cache.get("slow", id -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return decision(RiskDecision.Action.ALLOW, 60);
+        }, lookup);
+
+        assertTrue(lookup.getDurationNanos() >= 0, "span should be ended");
+        assertTrue(lookup.getDurationNanos() < 50_000_000L, "span covered the fetch: " + lookup.getDurationNanos());
+    }
+}
@@ -0,0 +1,75 @@
+package tech.humifortis.keycloak.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EventBatcherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<List<HumifortisEvent>> batches = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void flushesWhenBatchIsFull() {
+        EventBatcher batcher = new EventBatcher(3, 60_000, scheduler, batches::add);
+
+        for (int i = 0; i < 5; i++) {
+            batcher.add(SaasClientEventDeliveryTest.event(i));
+        }
+
+        assertEquals(1, batches.size());
+        List<HumifortisEvent> batch = batches.poll();
+        assertEquals(3, batch.size());
+        assertEquals("user:keycloak:test:user0", batch.get(0).getEntityId());
+
+        batcher.flush();
+        assertEquals(2, batches.poll().size());
+    }
+
+    @Test
+    void flushesAfterLinger() throws InterruptedException {
+        EventBatcher batcher = new EventBatcher(10, 50, scheduler, batches::add);
+
+        batcher.add(SaasClientEventDeliveryTest.event(0));
+        batcher.add(SaasClientEventDeliveryTest.event(1));
+
+        List<HumifortisEvent> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(2, batch.size());
+
+        // The next event starts a new linger period
+        batcher.add(SaasClientEventDeliveryTest.event(2));
+        assertEquals(1, batches.poll(5, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    void sizeFlushCancelsLinger() throws InterruptedException {
+        EventBatcher batcher = new EventBatcher(2, 50, scheduler, batches::add);
+
+        batcher.add(SaasClientEventDeliveryTest.event(0));
+        batcher.add(SaasClientEventDeliveryTest.event(1));
+        assertEquals(2, batches.poll().size());
+
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void flushOfEmptyBatcherSendsNothing() {
+        new EventBatcher(5, 50, scheduler, batches::add).flush();
+
+        assertNull(batches.poll());
+    }
+}
@@ -0,0 +1,58 @@
+package tech.humifortis.keycloak.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadCompressorTest {
+    private final PayloadCompressor compressor = new PayloadCompressor(1024);
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void roundTripsThroughGzipInputStream() throws IOException {
+        byte[] json = "{\"events\":[{\"event_type\":\"auth_login_failed\",\"source\":\"keycloak\"}]}"
+                .repeat(50).getBytes(StandardCharsets.UTF_8);
+
+        byte[] gzipped = compressor.gzip(json);
+
+        assertArrayEquals(json, gunzip(gzipped));
+        assertTrue(gzipped.length < json.length);
+    }
+
+    @Test
+    void roundTripsEmptyBody() throws IOException {
+        assertArrayEquals(new byte[0], gunzip(compressor.gzip(new byte[0])));
+    }
+
+    @Test
+    void roundTripsPayloadLargerThanRetainedBuffer() throws IOException {
+        // Random bytes do not compress, so the output also outgrows the 256 KiB retained buffer
+        byte[] large = new byte[600 * 1024];
+        new Random(11).nextBytes(large);
+        byte[] small = "after the large payload".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(large, gunzip(compressor.gzip(large)));
+        // The thread's state must still be usable after its buffer was dropped
+        assertArrayEquals(small, gunzip(compressor.gzip(small)));
+        assertArrayEquals(large, gunzip(compressor.gzip(large)));
+    }
+
+    @Test
+    void compressesOnlyFromMinimumSize() {
+        assertFalse(compressor.shouldCompress(new byte[1023]));
+        assertTrue(compressor.shouldCompress(new byte[1024]));
+    }
+}
@@ -0,0 +1,209 @@
+package tech.humifortis.keycloak.client;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Event delivery against a local HTTP server that records every request.
+ */
+class SaasClientEventDeliveryTest {
+    private HttpServer server;
+    private final List<Received> received = new CopyOnWriteArrayList<>();
+    private volatile Function<Received, Integer> responder = request -> 202;
+
+    record Received(String path, String contentEncoding, String body) {
+        int eventCount() {
+            var json = JsonParser.parseString(body).getAsJsonObject();
+            return json.has("events") ? json.getAsJsonArray("events").size() : 1;
+        }
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                byte[] raw = exchange.getRequestBody().readAllBytes();
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                InputStream in = new ByteArrayInputStream(raw);
+                if ("gzip".equals(encoding)) {
+                    in = new GZIPInputStream(in);
+                }
+                Received request = new Received(exchange.getRequestURI().getPath(), encoding,
+                        new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                received.add(request);
+                exchange.sendResponseHeaders(responder.apply(request), -1);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private SaasClient client(Map<String, String> overrides, long fallbackRetryNanos) {
+        Map<String, String> env = new HashMap<>(Map.of(
+                "HUMIFORTIS_API_URL", "http://127.0.0.1:" + server.getAddress().getPort(),
+                "HUMIFORTIS_API_KEY", "test-key",
+                "HUMIFORTIS_EVENT_LINGER_MS", "60000",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0"));
+        env.putAll(overrides);
+        return new SaasClient(new SaasConfig(env::get), fallbackRetryNanos);
+    }
+
+    static HumifortisEvent event(int i) {
+        HumifortisEvent event = new HumifortisEvent();
+        event.setEntityId("user:keycloak:test:user" + i);
+        event.setEntityType("user");
+        event.setEventType("auth_login_failed");
+        event.setSource("keycloak");
+        event.setTimestamp("2024-01-01T00:00:0" + (i % 10) + "Z");
+        event.addMetadata("realm", "test");
+        return event;
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (received.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, received.size(), "requests: " + received);
+    }
+
+    private int eventsAt(String path) {
+        return received.stream().filter(r -> r.path().equals(path)).mapToInt(Received::eventCount).sum();
+    }
+
+    @Test
+    void rejectedGzipIsResentUncompressedUntilTheWindowEnds() throws Exception {
+        responder = request -> "gzip".equals(request.contentEncoding()) ? 415 : 202;
+        Map<String, String> settings = Map.of(
+                "HUMIFORTIS_EVENT_BATCH_SIZE", "1",
+                "HUMIFORTIS_COMPRESSION_MIN_BYTES", "1");
+        SaasClient client = client(settings, 10_000_000_000L);
+        try {
+            client.sendEventAsync(event(0)).get(5, TimeUnit.SECONDS);
+            assertEquals(2, received.size());
+            assertEquals("gzip", received.get(0).contentEncoding());
+            assertNull(received.get(1).contentEncoding());
+            assertEquals(received.get(0).body(), received.get(1).body());
+
+            // Inside the window the body goes out uncompressed straight away
+            client.sendEventAsync(event(1)).get(5, TimeUnit.SECONDS);
+            assertEquals(3, received.size());
+            assertNull(received.get(2).contentEncoding());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void gzipIsRetriedAfterTheWindow() throws Exception {
+        responder = request -> "gzip".equals(request.contentEncoding()) ? 415 : 202;
+        Map<String, String> settings = Map.of(
+                "HUMIFORTIS_EVENT_BATCH_SIZE", "1",
+                "HUMIFORTIS_COMPRESSION_MIN_BYTES", "1");
+        SaasClient client = client(settings, 1_000_000L);
+        try {
+            client.sendEventAsync(event(0)).get(5, TimeUnit.SECONDS);
+            assertEquals(2, received.size());
+
+            responder = request -> 202;
+            Thread.sleep(5);
+            client.sendEventAsync(event(1)).get(5, TimeUnit.SECONDS);
+            assertEquals(3, received.size());
+            assertEquals("gzip", received.get(2).contentEncoding());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void plainBadRequestIsNotTreatedAsEncodingRejection() throws Exception {
+        responder = request -> 400;
+        Map<String, String> settings = Map.of(
+                "HUMIFORTIS_EVENT_BATCH_SIZE", "1",
+                "HUMIFORTIS_COMPRESSION_MIN_BYTES", "1");
+        SaasClient client = client(settings, 10_000_000_000L);
+        try {
+            client.sendEventAsync(event(0)).get(5, TimeUnit.SECONDS);
+            client.sendEventAsync(event(1)).get(5, TimeUnit.SECONDS);
+
+            assertEquals(2, received.size());
+            assertEquals("gzip", received.get(0).contentEncoding());
+            assertEquals("gzip", received.get(1).contentEncoding());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void missingBatchEndpointFallsBackToSingleEvents() throws Exception {
+        responder = request -> request.path().equals("/events/batch") ? 404 : 202;
+        SaasClient client = client(Map.of("HUMIFORTIS_EVENT_BATCH_SIZE", "3"), 10_000_000_000L);
+        try {
+            for (int i = 0; i < 3; i++) {
+                client.enqueueEvent(event(i));
+            }
+            // One rejected batch, then each of its events on its own
+            awaitRequests(4);
+            assertEquals(3, eventsAt("/events"));
+
+            // Later events skip the batch endpoint while the fallback window lasts
+            client.enqueueEvent(event(3));
+            awaitRequests(5);
+            assertEquals("/events", received.get(4).path());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void batchEndpointIsRetriedAfterTheFallbackWindow() throws Exception {
+        responder = request -> request.path().equals("/events/batch") ? 405 : 202;
+        SaasClient client = client(Map.of("HUMIFORTIS_EVENT_BATCH_SIZE", "2"), 1_000_000L);
+        try {
+            client.enqueueEvent(event(0));
+            client.enqueueEvent(event(1));
+            awaitRequests(3);
+
+            responder = request -> 202;
+            Thread.sleep(5);
+            client.enqueueEvent(event(2));
+            client.enqueueEvent(event(3));
+            awaitRequests(4);
+            assertEquals("/events/batch", received.get(3).path());
+            assertEquals(2, received.get(3).eventCount());
+            assertNull(received.get(3).contentEncoding());
+            assertEquals(2, eventsAt("/events"));
+        } finally {
+            client.close();
+        }
+    }
+}
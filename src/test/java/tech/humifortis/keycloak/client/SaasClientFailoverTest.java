@@ -0,0 +1,124 @@
+package tech.humifortis.keycloak.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.model.RiskDecision;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaasClientFailoverTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    @Test
+    void hangingFirstEndpointLeavesBudgetForTheNext() throws Exception {
+        String hanging = startServer(2000, 200);
+        String healthy = startServer(0, 404);
+        SaasClient client = new SaasClient(config(hanging + "," + healthy, 1000));
+        try {
+            long start = System.nanoTime();
+            RiskDecision decision = client.getRiskDecision("user:keycloak:test:alice");
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+            assertEquals(RiskDecision.Action.ALLOW, decision.getAction());
+            assertTrue(elapsedMs < 1000, "failover must stay inside the budget, took " + elapsedMs + " ms");
+            assertTrue(client.getEndpoints().getEndpoints().get(0).getErrorRate() > 0);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void slowHealthProbeDoesNotBlockTheCaller() throws Exception {
+        AtomicInteger probes = new AtomicInteger();
+        String slow = startServer(500, 200, probes);
+        String other = startServer(0, 200);
+        SaasClient client = new SaasClient(config(slow + "," + other, 3000));
+        try {
+            Endpoint endpoint = client.getEndpoints().getEndpoints().get(0);
+            for (int i = 0; i < 3; i++) {
+                endpoint.recordFailure();
+            }
+            assertTrue(endpoint.isEjected());
+
+            // Pretend the ejection cooldown is over
+            long afterCooldown = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            long start = System.nanoTime();
+            client.probeEjectedEndpoints(afterCooldown);
+            client.probeEjectedEndpoints(afterCooldown);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+            assertTrue(elapsedMs < 250, "probing waited for the endpoint, took " + elapsedMs + " ms");
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (endpoint.isEjected() && System.nanoTime() - deadline < 0) {
+                Thread.sleep(20);
+            }
+            assertFalse(endpoint.isEjected());
+            assertEquals(1, probes.get(), "a round must be skipped while a probe is in flight");
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void endpointThatOnlyFailedRanksBehindHealthyOne() {
+        Endpoint failing = new Endpoint("http://failing");
+        Endpoint healthy = new Endpoint("http://healthy");
+        failing.recordFailure();
+        healthy.recordSuccess(200_000_000L);
+
+        assertTrue(failing.score() > healthy.score(), failing.score() + " vs " + healthy.score());
+        assertEquals(0.0, new Endpoint("http://untried").score());
+    }
+
+    private static SaasConfig config(String urls, int timeoutMs) {
+        Map<String, String> env = Map.of(
+                "HUMIFORTIS_API_URL", urls,
+                "HUMIFORTIS_API_KEY", "test-key",
+                "HUMIFORTIS_TIMEOUT_MS", String.valueOf(timeoutMs),
+                "HUMIFORTIS_HEALTH_PROBE_INTERVAL_MS", "0",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0");
+        return new SaasConfig(env::get);
+    }
+
+    private String startServer(int delayMs, int status) throws IOException {
+        return startServer(delayMs, status, new AtomicInteger());
+    }
+
+    private String startServer(int delayMs, int status, AtomicInteger requests) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                requests.incrementAndGet();
+                Thread.sleep(delayMs);
+                exchange.sendResponseHeaders(status, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
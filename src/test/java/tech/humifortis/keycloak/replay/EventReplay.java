@@ -0,0 +1,208 @@
+package tech.humifortis.keycloak.replay;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.keycloak.events.Event;
+import org.keycloak.events.admin.AdminEvent;
+import tech.humifortis.keycloak.client.AdaptiveConcurrencyLimiter;
+import tech.humifortis.keycloak.client.SaasConfig;
+import tech.humifortis.keycloak.listener.HumifortisEventListener;
+import tech.humifortis.keycloak.routing.RealmRouter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded Keycloak event export through the event listener into a
+ * local {@link SaasStandIn} and reports throughput, outbound traffic, heap
+ * allocation and GC activity.
+ *
+ * Input is JSON lines, one {@code Event} or {@code AdminEvent} per line (admin
+ * events are recognised by their {@code operationType}), as returned by the
+ * Keycloak admin events API. Events are loaded up front and replayed in file
+ * order, spaced by their recorded timestamps divided by the speed factor, so
+ * two runs over the same file and settings send identical traffic.
+ *
+ * Usage: {@code EventReplay <file> [--speed=1|N|max] [--saas-latency-ms=0]
+ * [--drain-timeout-s=60]}. Other HUMIFORTIS_* variables (compression, wire
+ * format, concurrency) are taken from the environment.
+ */
+public class EventReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: EventReplay <events.jsonl> [--speed=1|N|max] "
+                    + "[--saas-latency-ms=0] [--drain-timeout-s=60]");
+            System.exit(2);
+        }
+        Path input = Path.of(args[0]);
+        double speed = 1;
+        int saasLatencyMs = 0;
+        int drainTimeoutS = 60;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--speed=")) {
+                String value = arg.substring("--speed=".length());
+                speed = "max".equals(value) ? 0 : Double.parseDouble(value);
+            } else if (arg.startsWith("--saas-latency-ms=")) {
+                saasLatencyMs = Integer.parseInt(arg.substring("--saas-latency-ms=".length()));
+            } else if (arg.startsWith("--drain-timeout-s=")) {
+                drainTimeoutS = Integer.parseInt(arg.substring("--drain-timeout-s=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        List<Object> events = load(input);
+        if (events.isEmpty()) {
+            System.err.println("No events in " + input);
+            System.exit(1);
+        }
+
+        try (SaasStandIn standIn = new SaasStandIn(saasLatencyMs, 32)) {
+            Map<String, String> overrides = new HashMap<>();
+            overrides.put("HUMIFORTIS_API_URL", standIn.getUrl());
+            overrides.put("HUMIFORTIS_HEALTH_PROBE_INTERVAL_MS", "0");
+            if (System.getenv("HUMIFORTIS_API_KEY") == null) {
+                overrides.put("HUMIFORTIS_API_KEY", "replay");
+            }
+            SaasConfig config = new SaasConfig(key -> overrides.getOrDefault(key, System.getenv(key)));
+            RealmRouter router = new RealmRouter(config);
+            HumifortisEventListener listener = new HumifortisEventListener(null, router);
+            AdaptiveConcurrencyLimiter limiter = router.getDefaultRoute().getClient().getEventLimiter();
+
+            Snapshot before = Snapshot.take();
+            long start = System.nanoTime();
+            long firstTime = timeOf(events.get(0));
+            for (Object event : events) {
+                if (speed > 0) {
+                    long due = start + (long) ((timeOf(event) - firstTime) * 1_000_000L / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                if (event instanceof AdminEvent) {
+                    listener.onEvent((AdminEvent) event, false);
+                } else {
+                    listener.onEvent((Event) event);
+                }
+            }
+            long dispatched = System.nanoTime();
+            router.getDefaultRoute().getClient().flushEvents();
+
+            long drainDeadline = dispatched + drainTimeoutS * 1_000_000_000L;
+            while ((limiter.getInFlight() > 0 || limiter.getQueued() > 0) && System.nanoTime() < drainDeadline) {
+                Thread.sleep(5);
+            }
+            long end = System.nanoTime();
+            Snapshot after = Snapshot.take();
+
+            report(input, events.size(), speed, config, standIn, limiter, 
+                    dispatched - start, end - start, before, after);
+        }
+        System.exit(0);
+    }
+
+    private static List<Object> load(Path input) throws IOException {
+        Gson gson = new Gson();
+        List<Object> events = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                events.add(json.has("operationType") 
+                        ? gson.fromJson(json, AdminEvent.class) 
+                        : gson.fromJson(json, Event.class));
+            }
+        }
+        return events;
+    }
+
+    private static long timeOf(Object event) {
+        return event instanceof AdminEvent ? ((AdminEvent) event).getTime() : ((Event) event).getTime();
+    }
+
+    private static void report(Path input, int eventCount, double speed, SaasConfig config, SaasStandIn standIn,
+                               AdaptiveConcurrencyLimiter limiter, long dispatchNanos, long totalNanos,
+                               Snapshot before, Snapshot after) {
+        double seconds = totalNanos / 1e9;
+        long allocated = after.allocatedBytes - before.allocatedBytes;
+        long gcCount = after.gcCount - before.gcCount;
+        long gcMs = after.gcTimeMs - before.gcTimeMs;
+        boolean drained = limiter.getInFlight() == 0 && limiter.getQueued() == 0;
+
+        System.out.printf("Replayed %d events from %s at %s%n", eventCount, input, 
+                speed > 0 ? speed + "x" : "max speed");
+        System.out.printf("  wire format %s, compression %s (min %d bytes), max concurrency %d%n",
+                config.getWireFormat(), config.getCompression(), config.getCompressionMinBytes(), 
+                config.getEventMaxConcurrency());
+        System.out.printf("  dispatch %.3f s, until drained %.3f s%s%n", dispatchNanos / 1e9, seconds,
+                drained ? "" : " (drain timed out)");
+        System.out.printf("  sustained %.1f events/s%n", eventCount / seconds);
+        System.out.printf("  outbound requests %d (event posts %d), shed %d, final limit %d, rtt %.2f ms%n",
+                standIn.getRequests(), standIn.getEventRequests(), limiter.getShedCount(), limiter.getLimit(), 
+                limiter.getSmoothedRttMs());
+        System.out.printf("  bytes on the wire: body %d, headers ~%d, %.1f body bytes/event%n",
+                standIn.getBodyBytes(), standIn.getHeaderBytes(), (double) standIn.getBodyBytes() / eventCount);
+        System.out.printf("  heap allocated ~%d bytes (%.0f bytes/event, live threads only)%n", 
+                allocated, (double) allocated / eventCount);
+        System.out.printf("  GC %d collections, %d ms total%n", gcCount, gcMs);
+
+        // Single line for diffing runs across connector versions
+        JsonObject result = new JsonObject();
+        result.addProperty("events", eventCount);
+        result.addProperty("speed", speed > 0 ? String.valueOf(speed) : "max");
+        result.addProperty("wire_format", config.getWireFormat());
+        result.addProperty("compression", config.getCompression());
+        result.addProperty("events_per_second", Math.round(eventCount / seconds * 10) / 10.0);
+        result.addProperty("requests", standIn.getRequests());
+        result.addProperty("shed", limiter.getShedCount());
+        result.addProperty("body_bytes", standIn.getBodyBytes());
+        result.addProperty("header_bytes", standIn.getHeaderBytes());
+        result.addProperty("allocated_bytes", allocated);
+        result.addProperty("gc_count", gcCount);
+        result.addProperty("gc_ms", gcMs);
+        result.addProperty("drained", drained);
+        System.out.println("replay-result " + result);
+    }
+
+    private static final class Snapshot {
+        private long allocatedBytes;
+        private long gcCount;
+        private long gcTimeMs;
+
+        static Snapshot take() {
+            Snapshot snapshot = new Snapshot();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+                for (long bytes : sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                    if (bytes > 0) {
+                        snapshot.allocatedBytes += bytes;
+                    }
+                }
+            }
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                snapshot.gcCount += Math.max(0, gc.getCollectionCount());
+                snapshot.gcTimeMs += Math.max(0, gc.getCollectionTime());
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package tech.humifortis.keycloak.replay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local HTTP server that accepts everything the connector sends and counts
+ * requests and bytes. Risk lookups get 404 (default allow).
+ */
+public class SaasStandIn implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int latencyMs;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder eventRequests = new LongAdder();
+    private final LongAdder bodyBytes = new LongAdder();
+    private final LongAdder headerBytes = new LongAdder();
+
+    public SaasStandIn(int latencyMs, int threads) throws IOException {
+        this.latencyMs = latencyMs;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long bytes = 0;
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = body.read(buffer)) > 0) {
+                    bytes += n;
+                }
+            }
+            // Request line plus "Name: value\r\n" per header and the blank line
+            long headers = exchange.getRequestMethod().length() + exchange.getRequestURI().toString().length() + 11;
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                for (String value : header.getValue()) {
+                    headers += header.getKey().length() + value.length() + 4;
+                }
+            }
+            requests.increment();
+            bodyBytes.add(bytes);
+            headerBytes.add(headers + 2);
+
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            int status;
+            if (path.endsWith("/events") || path.endsWith("/events/batch")) {
+                eventRequests.increment();
+                status = 202;
+            } else if (path.contains("/risk/")) {
+                status = 404;
+            } else {
+                status = 200;
+            }
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getEventRequests() {
+        return eventRequests.sum();
+    }
+
+    public long getBodyBytes() {
+        return bodyBytes.sum();
+    }
+
+    public long getHeaderBytes() {
+        return headerBytes.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,155 @@
+package tech.humifortis.keycloak.routing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.client.SaasConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers {@link RealmRouter#getShared()} from many threads through cold start,
+ * configuration failure, retry backoff and recovery.
+ */
+class RealmRouterConcurrencyTest {
+    private static final int THREADS = 32;
+    private static final int CALLS_PER_THREAD = 500;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+        RealmRouter.resetShared(SaasConfig::new);
+    }
+
+    @Test
+    void coldStartBuildsOneRouter() throws Exception {
+        AtomicInteger builds = new AtomicInteger();
+        RealmRouter.resetShared(() -> {
+            builds.incrementAndGet();
+            return RealmRouterTest.testConfig();
+        });
+
+        Set<RealmRouter> seen = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+        hammer(() -> {
+            seen.add(RealmRouter.getShared());
+            return null;
+        });
+
+        assertEquals(1, builds.get());
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    void failingConfigIsRetriedOnlyAfterBackoff() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicReference<SaasConfig> available = new AtomicReference<>();
+        RealmRouter.resetShared(() -> {
+            attempts.incrementAndGet();
+            SaasConfig config = available.get();
+            if (config == null) {
+                throw new IllegalStateException("Required environment variable not set: HUMIFORTIS_API_KEY");
+            }
+            return config;
+        });
+
+        // Every caller fails, but only one of them re-reads the configuration
+        List<Throwable> failures = hammer(() -> {
+            try {
+                RealmRouter.getShared();
+                return null;
+            } catch (RuntimeException e) {
+                return e;
+            }
+        });
+        assertEquals(THREADS * CALLS_PER_THREAD, failures.size());
+        failures.forEach(failure -> assertInstanceOf(IllegalStateException.class, failure));
+        assertEquals(1, attempts.get());
+
+        // Still inside the first (1 s) backoff window: fixed config is not picked up yet
+        available.set(RealmRouterTest.testConfig());
+        assertInstanceOf(IllegalStateException.class, catchFailure(RealmRouter::getShared));
+        assertEquals(1, attempts.get());
+
+        Thread.sleep(1100);
+
+        Set<RealmRouter> seen = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+        List<Throwable> afterBackoff = hammer(() -> {
+            seen.add(RealmRouter.getShared());
+            return null;
+        });
+        assertTrue(afterBackoff.isEmpty());
+        assertEquals(1, seen.size());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void sharedRouterServesConcurrentRouteLookups() throws Exception {
+        RealmRouter.resetShared(RealmRouterTest::testConfig);
+        AtomicInteger realmCounter = new AtomicInteger();
+
+        hammer(() -> {
+            RealmRouter router = RealmRouter.getShared();
+            String realmId = "realm-" + (realmCounter.incrementAndGet() % 8);
+            assertNotNull(router.route(null, realmId));
+            if (realmCounter.get() % 97 == 0) {
+                router.invalidate(realmId);
+            }
+            return null;
+        });
+    }
+
+    private static Throwable catchFailure(Runnable action) {
+        try {
+            action.run();
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Runs {@code call} {@link #CALLS_PER_THREAD} times on each of
+     * {@link #THREADS} threads released together, collecting non-null results.
+     */
+    private List<Throwable> hammer(Callable<Throwable> call) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Throwable>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                List<Throwable> results = new ArrayList<>();
+                for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                    Throwable result = call.call();
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+                return results;
+            }));
+        }
+        start.countDown();
+        List<Throwable> all = new ArrayList<>();
+        for (Future<List<Throwable>> future : futures) {
+            all.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        return all;
+    }
+}
@@ -0,0 +1,311 @@
+package tech.humifortis.keycloak.routing;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.EventType;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticationFlowModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import tech.humifortis.keycloak.auth.HumifortisRBAAuthenticatorFactory;
+import tech.humifortis.keycloak.client.AdaptiveConcurrencyLimiter;
+import tech.humifortis.keycloak.client.SaasConfig;
+import tech.humifortis.keycloak.model.HumifortisEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RealmRouterTest {
+
+    static SaasConfig testConfig() {
+        Map<String, String> env = Map.of(
+                "HUMIFORTIS_API_URL", "http://127.0.0.1:1",
+                "HUMIFORTIS_API_KEY", "base-key",
+                "HUMIFORTIS_TIMEOUT_MS", "500",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0");
+        return new SaasConfig(env::get);
+    }
+
+    private static AuthenticatorConfigModel configModel(String id, Map<String, String> config) {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setId(id);
+        model.setAlias(id);
+        model.setConfig(new HashMap<>(config));
+        return model;
+    }
+
+    /**
+     * Session whose realm has one RBA execution configured by {@code model}, counting realm lookups.
+     */
+    private static KeycloakSession session(String realmId, AuthenticatorConfigModel model, AtomicInteger lookups) {
+        AuthenticationFlowModel flow = new AuthenticationFlowModel();
+        flow.setId("browser");
+        RealmModel realm = proxy(RealmModel.class, (method, args) -> {
+            switch (method) {
+                case "getAuthenticationFlowsStream":
+                    return Stream.of(flow);
+                case "getAuthenticationExecutionsStream":
+                    AuthenticationExecutionModel execution = new AuthenticationExecutionModel();
+                    execution.setAuthenticator(HumifortisRBAAuthenticatorFactory.PROVIDER_ID);
+                    execution.setAuthenticatorConfig(model.getId());
+                    return Stream.of(execution);
+                case "getAuthenticatorConfigById":
+                    return model.getId().equals(args[0]) ? model : null;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+        RealmProvider realms = proxy(RealmProvider.class, (method, args) -> {
+            lookups.incrementAndGet();
+            return realmId.equals(args[0]) ? realm : null;
+        });
+        return proxy(KeycloakSession.class, (method, args) -> realms);
+    }
+
+    private interface StubMethod {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, StubMethod handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (target, method, args) -> handler.invoke(method.getName(), args));
+    }
+
+    @Test
+    void eventRoutesAreRecheckedAgainstTheRealmConfig() {
+        AuthenticatorConfigModel model = configModel("cfg", Map.of(RealmRouter.FALLBACK_MODE, "block"));
+        AtomicInteger lookups = new AtomicInteger();
+        KeycloakSession session = session("realm-1", model, lookups);
+        RealmRouter router = new RealmRouter(testConfig(), 0, 60_000);
+
+        RealmRoute first = router.route(session, "realm-1");
+        assertFalse(first.isFallbackAllow());
+        // Rechecked, but an unchanged config keeps the compiled route
+        assertSame(first, router.route(session, "realm-1"));
+        assertEquals(2, lookups.get());
+
+        model.getConfig().put(RealmRouter.FALLBACK_MODE, "allow");
+        RealmRoute changed = router.route(session, "realm-1");
+        assertNotSame(first, changed);
+        assertTrue(changed.isFallbackAllow());
+        assertSame(changed, router.route("realm-1"));
+        router.close();
+    }
+
+    @Test
+    void eventRoutesAreNotRecheckedWithinTheInterval() {
+        AuthenticatorConfigModel model = configModel("cfg", Map.of(RealmRouter.FALLBACK_MODE, "block"));
+        AtomicInteger lookups = new AtomicInteger();
+        KeycloakSession session = session("realm-1", model, lookups);
+        RealmRouter router = new RealmRouter(testConfig(), 60_000, 60_000);
+
+        RealmRoute first = router.route(session, "realm-1");
+        model.getConfig().put(RealmRouter.FALLBACK_MODE, "allow");
+
+        assertSame(first, router.route(session, "realm-1"));
+        assertEquals(1, lookups.get());
+        router.close();
+    }
+
+    @Test
+    void loginRoutesAreKeyedByExecutionConfig() {
+        RealmRouter router = new RealmRouter(testConfig());
+        AuthenticatorConfigModel strict = configModel("cfg-strict", Map.of(RealmRouter.FALLBACK_MODE, "block"));
+        AuthenticatorConfigModel lenient = configModel("cfg-lenient", Map.of(RealmRouter.FALLBACK_MODE, "allow"));
+
+        RealmRoute strictRoute = router.route("realm-1", strict);
+        RealmRoute lenientRoute = router.route("realm-1", lenient);
+
+        assertFalse(strictRoute.isFallbackAllow());
+        assertTrue(lenientRoute.isFallbackAllow());
+        // Alternating executions of one realm must not recompile each other's route
+        assertSame(strictRoute, router.route("realm-1", strict));
+        assertSame(lenientRoute, router.route("realm-1", lenient));
+    }
+
+    @Test
+    void changedOrInvalidatedConfigIsRecompiled() {
+        RealmRouter router = new RealmRouter(testConfig());
+        AuthenticatorConfigModel model = configModel("cfg", Map.of(RealmRouter.FALLBACK_MODE, "block"));
+        RealmRoute first = router.route("realm-1", model);
+
+        model.getConfig().put(RealmRouter.FALLBACK_MODE, "allow");
+        RealmRoute changed = router.route("realm-1", model);
+        assertNotSame(first, changed);
+        assertTrue(changed.isFallbackAllow());
+
+        router.invalidate("realm-1");
+        assertNotSame(changed, router.route("realm-1", model));
+    }
+
+    @Test
+    void executionWithoutConfigUsesDefaults() {
+        RealmRouter router = new RealmRouter(testConfig());
+
+        assertSame(router.getDefaultRoute(), router.route("realm-1", (AuthenticatorConfigModel) null));
+        assertSame(router.getDefaultRoute(), router.route(null, "realm-1"));
+    }
+
+    @Test
+    void nonPositiveOrInvalidBudgetFallsBackToDefault() {
+        RealmRouter router = new RealmRouter(testConfig());
+
+        assertEquals(500, router.route("r", configModel("zero", Map.of(RealmRouter.LATENCY_BUDGET_MS, "0")))
+                .getLatencyBudgetMs());
+        assertEquals(500, router.route("r", configModel("negative", Map.of(RealmRouter.LATENCY_BUDGET_MS, "-5")))
+                .getLatencyBudgetMs());
+        assertEquals(500, router.route("r", configModel("junk", Map.of(RealmRouter.LATENCY_BUDGET_MS, "fast")))
+                .getLatencyBudgetMs());
+        assertEquals(250, router.route("r", configModel("ok", Map.of(RealmRouter.LATENCY_BUDGET_MS, "250")))
+                .getLatencyBudgetMs());
+    }
+
+    @Test
+    void clientsNoRouteUsesAreClosedAfterGraceDelay() throws Exception {
+        RealmRouter router = new RealmRouter(testConfig(), 0, 200);
+        AuthenticatorConfigModel model = configModel("cfg", Map.of(RealmRouter.TENANT_KEY, "tenant-a"));
+        RealmRoute tenantA = router.route("realm-1", model);
+        assertNotSame(router.getDefaultRoute().getClient(), tenantA.getClient());
+
+        model.getConfig().put(RealmRouter.TENANT_KEY, "tenant-b");
+        RealmRoute tenantB = router.route("realm-1", model);
+
+        assertNotSame(tenantA.getClient(), tenantB.getClient());
+        // A login that read the old route can still use its client until the grace delay is over
+        assertOpen(tenantA.getClient().getEventLimiter());
+        awaitClosed(tenantA.getClient().getEventLimiter());
+        assertOpen(tenantB.getClient().getEventLimiter());
+
+        router.invalidate("realm-1");
+        awaitClosed(tenantB.getClient().getEventLimiter());
+        assertOpen(router.getDefaultRoute().getClient().getEventLimiter());
+        router.close();
+        assertClosed(router.getDefaultRoute().getClient().getEventLimiter());
+    }
+
+    @Test
+    void retiredClientIsReusedWithinGraceAndClosedWithRouter() throws Exception {
+        RealmRouter router = new RealmRouter(testConfig(), 0, 60_000);
+        AuthenticatorConfigModel model = configModel("cfg", Map.of(RealmRouter.TENANT_KEY, "tenant-a"));
+        RealmRoute tenantA = router.route("realm-1", model);
+
+        model.getConfig().put(RealmRouter.TENANT_KEY, "tenant-b");
+        RealmRoute tenantB = router.route("realm-1", model);
+        model.getConfig().put(RealmRouter.TENANT_KEY, "tenant-a");
+        RealmRoute tenantAAgain = router.route("realm-1", model);
+        assertSame(tenantA.getClient(), tenantAAgain.getClient());
+
+        // tenant-b is now retired; closing the router must not wait out its grace delay
+        router.close();
+        assertClosed(tenantA.getClient().getEventLimiter());
+        assertClosed(tenantB.getClient().getEventLimiter());
+    }
+
+    private static void assertClosed(AdaptiveConcurrencyLimiter limiter) {
+        CompletableFuture<Void> result = limiter.submit(() -> true);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    private static void awaitClosed(AdaptiveConcurrencyLimiter limiter) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() - deadline < 0) {
+            try {
+                limiter.submit(() -> true).get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertInstanceOf(RejectedExecutionException.class, e.getCause());
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("client was not closed after the grace delay");
+    }
+
+    private static void assertOpen(AdaptiveConcurrencyLimiter limiter) throws Exception {
+        limiter.submit(() -> true).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void closingSharedRouterDeliversBufferedEvents() throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        HttpServer saas = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        saas.setExecutor(Executors.newFixedThreadPool(2));
+        saas.createContext("/", exchange -> {
+            try (exchange) {
+                InputStream body = new ByteArrayInputStream(exchange.getRequestBody().readAllBytes());
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                String json = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                delivered.addAndGet(JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("events").size());
+                Thread.sleep(100);
+                exchange.sendResponseHeaders(202, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        saas.start();
+        Map<String, String> env = Map.of(
+                "HUMIFORTIS_API_URL", "http://127.0.0.1:" + saas.getAddress().getPort(),
+                "HUMIFORTIS_API_KEY", "base-key",
+                "HUMIFORTIS_EVENT_BATCH_SIZE", "4",
+                "HUMIFORTIS_EVENT_LINGER_MS", "60000",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0");
+        try {
+            RealmRouter.resetShared(() -> new SaasConfig(env::get));
+            RealmRouter router = RealmRouter.getShared();
+            for (int i = 0; i < 10; i++) {
+                HumifortisEvent event = new HumifortisEvent();
+                event.setEntityId("user:keycloak:test:user" + i);
+                event.setEventType("auth_login_success");
+                router.getDefaultRoute().getClient().enqueueEvent(event);
+            }
+
+            // Two full batches are in flight or queued and two events still wait for the linger flush
+            RealmRouter.closeShared();
+
+            assertEquals(10, delivered.get());
+        } finally {
+            RealmRouter.resetShared(SaasConfig::new);
+            saas.stop(0);
+            ((ExecutorService) saas.getExecutor()).shutdownNow();
+        }
+    }
+
+    @Test
+    void forwardedEventsOverrideDefaults() {
+        RealmRouter router = new RealmRouter(testConfig());
+        RealmRoute route = router.route("r", configModel("events",
+                Map.of(RealmRouter.FORWARDED_EVENTS, "LOGIN##NOT_AN_EVENT")));
+
+        assertTrue(route.forwards(EventType.LOGIN));
+        assertFalse(route.forwards(EventType.LOGOUT));
+        assertTrue(router.getDefaultRoute().forwards(EventType.LOGOUT));
+    }
+}
@@ -0,0 +1,94 @@
+package tech.humifortis.keycloak.tracing;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.humifortis.keycloak.client.SaasClient;
+import tech.humifortis.keycloak.client.SaasConfig;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the W3C {@code traceparent} header the client sends with risk lookups.
+ */
+class TraceparentPropagationTest {
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-(0[01])");
+
+    private HttpServer saas;
+    private SaasClient client;
+    private final List<String> headers = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() throws Exception {
+        saas = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        saas.setExecutor(Executors.newSingleThreadExecutor());
+        saas.createContext("/", exchange -> {
+            try (exchange) {
+                headers.add(String.valueOf(exchange.getRequestHeaders().getFirst("traceparent")));
+                exchange.sendResponseHeaders(404, -1);
+            }
+        });
+        saas.start();
+        Map<String, String> env = Map.of(
+                "HUMIFORTIS_API_URL", "http://127.0.0.1:" + saas.getAddress().getPort(),
+                "HUMIFORTIS_API_KEY", "test-key",
+                "HUMIFORTIS_METRICS_LOG_INTERVAL_MS", "0");
+        client = new SaasClient(new SaasConfig(env::get));
+    }
+
+    @AfterEach
+    void stop() {
+        client.close();
+        saas.stop(0);
+        ((ExecutorService) saas.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    void sampledLookupNamesTheHttpSendSpan() throws Exception {
+        LoginTrace trace = new Tracer(1.0, new InMemorySpanExporter()).startTrace("rba.authenticate");
+
+        client.getRiskDecision("user:keycloak:test:alice", trace);
+
+        Matcher header = TRACEPARENT.matcher(headers.get(0));
+        assertTrue(header.matches(), headers.get(0));
+        Span send = trace.getSpans().stream()
+                .filter(span -> span.getName().equals("saas.http_send"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(trace.getTraceId(), header.group(1));
+        assertEquals(send.getSpanId(), header.group(2));
+        assertEquals("01", header.group(3));
+        assertEquals(trace.getRoot().getSpanId(), send.getParentSpanId());
+    }
+
+    @Test
+    void unsampledLookupStillPropagatesTraceId() throws Exception {
+        LoginTrace trace = new Tracer(0, new InMemorySpanExporter()).startTrace("rba.authenticate");
+
+        client.getRiskDecision("user:keycloak:test:bob", trace);
+
+        Matcher header = TRACEPARENT.matcher(headers.get(0));
+        assertTrue(header.matches(), headers.get(0));
+        assertEquals(trace.getTraceId(), header.group(1));
+        assertEquals(trace.getRoot().getSpanId(), header.group(2));
+        assertEquals("00", header.group(3));
+    }
+
+    @Test
+    void lookupWithoutTraceSendsNoHeader() throws Exception {
+        client.getRiskDecision("user:keycloak:test:carol");
+
+        assertEquals("null", headers.get(0));
+    }
+}
@@ -0,0 +1,54 @@
+package tech.humifortis.keycloak.tracing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TracerTest {
+
+    @Test
+    void memoryExporterIsTheSharedInstance() {
+        InMemorySpanExporter shared = InMemorySpanExporter.getShared();
+        shared.clear();
+        assertSame(shared, Tracer.createExporter("memory"));
+
+        Tracer tracer = new Tracer(1.0, Tracer.createExporter("memory"));
+        LoginTrace trace = tracer.startTrace("rba.authenticate");
+        Span span = trace.span("entity_id");
+        span.end();
+        trace.end();
+
+        List<LoginTrace> traces = shared.getTraces();
+        assertEquals(1, traces.size());
+        assertEquals("entity_id", traces.get(0).getSpans().get(0).getName());
+        assertTrue(traces.get(0).getSpans().get(0).getDurationNanos() >= 0);
+        shared.clear();
+    }
+
+    @Test
+    void unsampledTraceReusesRootAndExportsNothing() {
+        InMemorySpanExporter exporter = new InMemorySpanExporter();
+        LoginTrace trace = new Tracer(0, exporter).startTrace("rba.authenticate");
+
+        Span span = trace.span("entity_id");
+        span.end();
+        trace.end();
+
+        assertSame(trace.getRoot(), span);
+        assertEquals(-1, span.getDurationNanos());
+        assertTrue(trace.traceparent(span).endsWith("-00"));
+        assertTrue(exporter.getTraces().isEmpty());
+    }
+
+    @Test
+    void noneDisablesTracing() {
+        assertNull(Tracer.createExporter("none"));
+        assertFalse(new Tracer(1.0, null).startTrace("rba.authenticate").isSampled());
+    }
+}